@@ -0,0 +1,186 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// --------------------- PROTOCOLO BINARIO (TCP) ---------------------
+// Alternativa opcional al protocolo de líneas. El servidor sigue mandando la bienvenida en
+// texto apenas alguien se conecta; un cliente binario responde con el saludo HANDSHAKE (empieza
+// con el byte 0, que ninguna línea de texto usa) y desde ahí los dos lados hablan en frames:
+//
+//   tipo(byte) banderas(byte) largo(int) datos...      (big-endian, largo = bytes de datos)
+//
+// El tipo dice qué comando es, así que el servidor no recorta, ni pasa a minúsculas, ni compara
+// cadenas; los datos (UTF-8) pueden tener saltos de línea. Con la bandera COMPRESSED los datos
+// van comprimidos con Deflate: el emisor la usa solo si el mensaje pasa COMPRESS_MIN bytes y
+// comprimido ocupa menos. Client, ClientGUI y client_gui.py no mandan el saludo y siguen en texto.
+final class BinaryProtocol {
+    // Saludo del cliente: 0 "CHAT" versión
+    static final byte[] HANDSHAKE = {0, 'C', 'H', 'A', 'T', 1};
+    static final int HEADER = 6;
+    static final int MAX_PAYLOAD = 64 * 1024;          // Datos de un frame, antes y después de descomprimir
+    static final int COMPRESS_MIN = 512;
+    static final byte COMPRESSED = 1;
+
+    // Cliente -> servidor (los comandos del protocolo de texto)
+    static final byte LOGIN = 1;       // datos: nombre de usuario
+    static final byte MESSAGE = 2;     // datos: texto para la sala
+    static final byte LIST = 3;        // /listar
+    static final byte QUIT = 4;        // /quitar
+    static final byte ROOMS = 5;       // /salas
+    static final byte JOIN = 6;        // /unirse, datos: sala
+    static final byte LEAVE = 7;       // /dejar
+    static final byte HISTORY = 8;     // /historial, datos: cantidad (vacío = la de siempre)
+    static final byte STATS = 9;       // /estadisticas
+    // Servidor -> cliente
+    static final byte TEXT = 64;       // Una línea para mostrar (la misma que en el protocolo de texto)
+    static final byte HELLO = 127;     // Respuesta al saludo: desde acá todo es binario
+
+    // Un frame recibido, ya descomprimido
+    static final class Message {
+        final byte type;
+        final byte[] payload;
+
+        Message(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private BinaryProtocol() {}
+
+    // ---------------- DE TEXTO A TIPO ----------------
+    // Para los clientes, que arman frames a partir de lo que se escribe. El servidor reconoce
+    // los comandos sobre los bytes recibidos con la misma tabla (ver CommandTable).
+    private static final CommandTable COMMANDS = CommandTable.chat();
+
+    // Tipo de una línea del protocolo de texto ya recortada. Los comandos sin argumento se
+    // aceptan con y sin barra; /unirse lleva argumento y va siempre con barra.
+    static byte typeOf(String line) {
+        byte[] data = line.getBytes(StandardCharsets.UTF_8);
+        return COMMANDS.typeOf(data, 0, data.length);
+    }
+
+    // Argumento de la línea para su tipo: lo que sigue al comando, o la línea entera si es un mensaje
+    static String argOf(byte type, String line) {
+        if (type == MESSAGE) return line;
+        byte[] data = line.getBytes(StandardCharsets.UTF_8);
+        return COMMANDS.argOf(type, data, 0, data.length);
+    }
+
+    // ---------------- CODIFICACIÓN ----------------
+
+    static ByteBuffer encode(byte type, String text) {
+        return encode(type, text.getBytes(StandardCharsets.UTF_8), 0, -1);
+    }
+
+    // Frame con length bytes de data desde offset (length -1 = hasta el final)
+    static ByteBuffer encode(byte type, byte[] data, int offset, int length) {
+        if (length < 0) length = data.length - offset;
+        byte flags = 0;
+        if (length >= COMPRESS_MIN) {
+            byte[] packed = deflate(data, offset, length);
+            if (packed.length < length) {
+                data = packed;
+                offset = 0;
+                length = packed.length;
+                flags = COMPRESSED;
+            }
+        }
+        ByteBuffer frame = ByteBuffer.allocate(HEADER + length);
+        frame.put(type).put(flags).putInt(length).put(data, offset, length);
+        return frame.flip();
+    }
+
+    private static byte[] deflate(byte[] data, int offset, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2);
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) out.write(chunk, 0, deflater.deflate(chunk));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // ---------------- DECODIFICACIÓN ----------------
+
+    // Siguiente frame del buffer (en modo lectura) o null si todavía no llegó entero; en ese
+    // caso no consume nada. IOException si el frame es inválido.
+    static Message decode(ByteBuffer in) throws IOException {
+        if (in.remaining() < HEADER) return null;
+        int start = in.position();
+        int length = in.getInt(start + 2);
+        if (length < 0 || length > MAX_PAYLOAD) throw new IOException("Frame de " + length + " bytes");
+        if (in.remaining() < HEADER + length) return null;
+        byte type = in.get(start);
+        byte flags = in.get(start + 1);
+        byte[] payload = new byte[length];
+        in.position(start + HEADER);
+        in.get(payload);
+        return new Message(type, (flags & COMPRESSED) != 0 ? inflate(payload, MAX_PAYLOAD) : payload);
+    }
+
+    // Siguiente frame de un stream bloqueante; null si el otro lado cerró entre frames
+    static Message read(DataInputStream in) throws IOException {
+        return read(in, MAX_PAYLOAD);
+    }
+
+    // Igual, con otro límite para los datos (los enlaces entre servidores mandan fotos grandes)
+    static Message read(DataInputStream in, int maxPayload) throws IOException {
+        int type = in.read();
+        if (type < 0) return null;
+        byte flags = in.readByte();
+        int length = in.readInt();
+        if (length < 0 || length > maxPayload) throw new IOException("Frame de " + length + " bytes");
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Message((byte) type, (flags & COMPRESSED) != 0 ? inflate(payload, maxPayload) : payload);
+    }
+
+    // Leer y validar el saludo (sin el 0 inicial, que ya se leyó para elegir el protocolo)
+    static void readHandshake(DataInputStream in) throws IOException {
+        byte[] rest = new byte[HANDSHAKE.length - 1];
+        in.readFully(rest);
+        checkHandshake(rest, 0);
+    }
+
+    // Validar el saludo a partir del byte que sigue al 0
+    static void checkHandshake(byte[] data, int offset) throws IOException {
+        for (int i = 1; i < HANDSHAKE.length; i++) {
+            if (data[offset + i - 1] != HANDSHAKE[i]) throw new IOException("Saludo binario inválido");
+        }
+    }
+
+    private static byte[] inflate(byte[] packed, int maxPayload) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(packed.length * 2);
+            byte[] chunk = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) throw new EOFException("Datos comprimidos incompletos");
+                out.write(chunk, 0, n);
+                if (out.size() > maxPayload) throw new IOException("Frame descomprimido demasiado grande");
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Datos comprimidos inválidos", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
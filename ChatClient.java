@@ -0,0 +1,18 @@
+// Cliente del motor del chat: una conexión TCP (en cualquier modo de E/S) o una dirección UDP
+interface ChatClient {
+    String getUsername();                // null mientras no haya hecho login
+    void setUsername(String username);
+    void send(Frame frame);              // Enviar una línea ya codificada (compartida en broadcast)
+    void close();                        // Cerrar la conexión (después de enviar lo pendiente)
+    RateLimiter limiter();               // Límites de tráfico de esta conexión (null = sin límites)
+
+    // Mensajes esperando en su cola de salida (para las métricas; 0 si no tiene cola propia)
+    default int queued() {
+        return 0;
+    }
+
+    // Enviar una línea al cliente
+    default void send(String msg) {
+        send(Frame.of(msg));
+    }
+}
@@ -0,0 +1,407 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// --------------------- MOTOR DEL CHAT (UN SOLO ESCRITOR) ---------------------
+// Toda la lógica del chat (login, salas, /listar, /quitar, /historial, /estadisticas y broadcast) vive acá,
+// sin saber nada del transporte. Server (TCP, en cualquier modo de E/S) y ServerUDP solo
+// leen, separan líneas o frames, aplican el límite de tráfico y mandan cada comando por un
+// anillo MPSC sin locks; un único hilo los atiende en orden y contesta con send() de cada
+// ChatClient. Como el estado (usuarios, salas) solo lo modifica ese hilo, no hay carreras
+// entre un login, un cambio de sala y un broadcast, y los dos transportes responden igual.
+//
+// submit() solo encola. Si el anillo se llena (el motor no da abasto) el productor se duerme
+// de a ratos hasta que haya lugar, así la presión vuelve hacia los sockets en vez de acumularse
+// en memoria; si pasa OFFER_TIMEOUT sin lugar, submit() devuelve false y el lector desconecta a
+// ese cliente. Las bajas (leave) esperan lo que haga falta: no se pueden perder, y el motor
+// siempre avanza porque nunca espera a nadie. Lo que el propio motor genera (un envío fiable
+// que da por perdido a un cliente y pide su baja) va a una cola local y no pasa por el anillo.
+final class ChatEngine {
+    private static final int BATCH = 256;                        // Comandos por tanda
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);   // Siesta con el anillo lleno
+    private static final long OFFER_TIMEOUT = TimeUnit.SECONDS.toNanos(2);
+
+    // Un pedido para el motor
+    private static final class Command {
+        static final byte LINE = 0;          // Una línea del protocolo de texto (TCP o UDP)
+        static final byte FRAME = 1;         // Un frame del protocolo binario
+        static final byte LEAVE = 2;         // La conexión se cerró o hay que cerrarla
+        static final byte REMOTE = 3;        // Algo publicado en otro nodo del cluster
+
+        final byte kind;
+        final ChatClient client;
+        final byte type;
+        final String arg;
+        final String line;                   // Línea completa, solo si el lector no vio login (es el nombre)
+        final String room;
+        final Frame frame;
+        final boolean chat;
+        final long received = System.nanoTime();   // Para la latencia de fan-out
+
+        Command(byte kind, ChatClient client, byte type, String arg, String line, String room, Frame frame, boolean chat) {
+            this.kind = kind;
+            this.client = client;
+            this.type = type;
+            this.arg = arg;
+            this.line = line;
+            this.room = room;
+            this.frame = frame;
+            this.chat = chat;
+        }
+    }
+
+    private final String tag;                                    // "[SERVIDOR]" o "[SERVIDOR-UDP]" en el log
+    // Usuarios con login (por conexión y por nombre, sin repetidos) y la sala de cada uno.
+    // Solo los modifica el hilo del motor; se pueden leer desde otros hilos.
+    private final UserRegistry<ChatClient> users = new UserRegistry<>();
+    private final RoomIndex<ChatClient> rooms = new RoomIndex<>();
+    private final MpscRing<Command> ring;
+    private final ArrayDeque<Command> local = new ArrayDeque<>();   // Pedidos del hilo del motor a sí mismo
+    private final Metrics metrics;
+    private volatile MessageLog history;                         // null = sin historial
+    private int replay;
+    private volatile ClusterRelay cluster;                       // null = servidor solo
+    private Runnable beginBatch = () -> {};
+    private Runnable endBatch = () -> {};
+    private Thread thread;
+    private volatile boolean sleeping;
+
+    ChatEngine(String tag, int capacity, Metrics metrics) {
+        this.tag = tag;
+        this.ring = new MpscRing<>(capacity);
+        this.metrics = metrics;
+        metrics.gauge("usuarios", users::size);
+        metrics.gauge("cola_motor", ring::size);
+        metrics.gauge("cola_salida_total", () -> outbound(false));
+        metrics.gauge("cola_salida_max", () -> outbound(true));
+        metrics.gauge("historial_descartados", () -> {
+            MessageLog log = history;
+            return log != null ? log.dropped() : 0;
+        });
+        metrics.gauge("enlaces_cluster", () -> {
+            ClusterRelay c = cluster;
+            return c != null ? c.links() : 0;
+        });
+    }
+
+    // Mensajes esperando en las colas de salida de los usuarios conectados (suma o la más larga)
+    private long outbound(boolean max) {
+        long[] acc = new long[1];
+        users.forEach(c -> {
+            int n = c.queued();
+            acc[0] = max ? Math.max(acc[0], n) : acc[0] + n;
+        });
+        return acc[0];
+    }
+
+    // ---------------- CONFIGURACIÓN (antes de start()) ----------------
+
+    // Guardar los mensajes de chat en history y repetir los últimos replay a quien entra
+    void setHistory(MessageLog history, int replay) {
+        this.history = history;
+        this.replay = replay;
+    }
+
+    void setCluster(ClusterRelay cluster) {
+        this.cluster = cluster;
+    }
+
+    // Tareas alrededor de cada tanda de comandos (ServerUDP empaqueta ahí sus envíos fiables)
+    void setBatchHooks(Runnable begin, Runnable end) {
+        this.beginBatch = begin;
+        this.endBatch = end;
+    }
+
+    synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(this::run, "motor-chat");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // ---------------- ENTRADA (desde cualquier hilo) ----------------
+
+    // Una línea de texto ya reconocida. line es la línea entera y solo hace falta mientras el
+    // cliente no tiene nombre (ahí la línea es el nombre); después va null y no se decodifica.
+    // false si el motor está saturado: el lector debe desconectar al cliente.
+    boolean submit(ChatClient client, byte type, String arg, String line) {
+        return offer(new Command(Command.LINE, client, type, arg, line, null, null, false), true);
+    }
+
+    // Un frame binario: el tipo ya dice qué es, y en un LOGIN arg es el nombre (false: saturado)
+    boolean submitFrame(ChatClient client, byte type, String arg) {
+        return offer(new Command(Command.FRAME, client, type, arg, null, null, null, false), true);
+    }
+
+    // La conexión terminó (o el transporte la da por perdida): dar de baja, avisar y cerrar
+    void leave(ChatClient client) {
+        offer(new Command(Command.LEAVE, client, (byte) 0, null, null, null, null, false), false);
+    }
+
+    // Una línea publicada en otro nodo del cluster, para los miembros locales de la sala
+    // (false: saturado, la línea no se entregó)
+    boolean deliverRemote(String room, Frame frame, boolean chat) {
+        return offer(new Command(Command.REMOTE, null, (byte) 0, null, null, room, frame, chat), true);
+    }
+
+    // Usuarios conectados (en todo el cluster si lo hay); se rearma solo si alguien entró o salió
+    String listUsers() {
+        ClusterRelay c = cluster;
+        return c != null ? c.roster() : users.roster();
+    }
+
+    String nameOf(ChatClient client) {
+        return users.nameOf(client);
+    }
+
+    // Encolar para el motor. Desde su propio hilo va a la cola local (esperar ahí sería esperarse
+    // a sí mismo); desde otro, si el anillo está lleno se duerme hasta que haya lugar, como mucho
+    // OFFER_TIMEOUT si mayReject. Devuelve false solo si venció ese plazo.
+    private boolean offer(Command command, boolean mayReject) {
+        if (Thread.currentThread() == thread) {
+            local.addLast(command);
+            return true;
+        }
+        if (!ring.offer(command)) {
+            long deadline = System.nanoTime() + OFFER_TIMEOUT;
+            do {
+                if (mayReject && System.nanoTime() - deadline >= 0) return false;
+                LockSupport.parkNanos(FULL_NANOS);
+            } while (!ring.offer(command));
+        }
+        if (sleeping) LockSupport.unpark(thread);
+        return true;
+    }
+
+    private Command next() {
+        Command command = local.pollFirst();
+        return command != null ? command : ring.poll();
+    }
+
+    // ---------------- HILO DEL MOTOR ----------------
+
+    private void run() {
+        while (true) {
+            Command command = next();
+            if (command == null) {
+                sleeping = true;
+                if (ring.isEmpty()) LockSupport.parkNanos(IDLE_NANOS);
+                sleeping = false;
+                continue;
+            }
+            beginBatch.run();
+            int n = 0;
+            do {
+                try {
+                    execute(command);
+                } catch (RuntimeException e) {
+                    Log.error(tag + " Error en el motor: {}", e.toString());
+                }
+            } while (++n < BATCH && (command = next()) != null);
+            endBatch.run();
+        }
+    }
+
+    private void execute(Command c) {
+        switch (c.kind) {
+            case Command.LINE:
+            case Command.FRAME:
+                handle(c.client, c.type, c.arg, c.kind == Command.LINE, c.line, c.received);
+                break;
+            case Command.LEAVE:
+                remove(c.client);
+                c.client.close();
+                break;
+            case Command.REMOTE:
+                broadcast(c.room, c.frame, null);
+                MessageLog log = history;
+                if (c.chat && log != null) log.append(c.room, c.frame);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Atender un comando ya identificado, venga de TCP (texto o binario) o de UDP
+    private void handle(ChatClient client, byte type, String arg, boolean text, String line, long received) {
+        // ---------------- PEDIR NOMBRE DE USUARIO ----------------
+        if (client.getUsername() == null) {
+            if (type == BinaryProtocol.QUIT) {
+                client.send("[SERVIDOR] Desconectando. ¡Hasta luego!");
+                client.close();
+                return;
+            }
+            if (!text && type != BinaryProtocol.LOGIN) {
+                client.send("[SERVIDOR] Primero envíe su nombre de usuario.");
+                return;
+            }
+            String name = text ? line : arg;
+            if (name == null) return;   // El lector lo vio con nombre y se dio de baja mientras tanto
+            if (name.indexOf('\n') >= 0) {
+                client.send("[SERVIDOR] El nombre debe ser una sola línea. Intente de nuevo:");
+                return;
+            }
+            login(client, name);
+            return;
+        }
+        if (users.nameOf(client) == null) return;   // Ya se dio de baja: lo que quedaba en el anillo sobra
+        if (!text && type == BinaryProtocol.LOGIN) {
+            client.send("[SERVIDOR] Ya está conectado como " + client.getUsername() + ".");
+            return;
+        }
+
+        switch (type) {
+            case BinaryProtocol.LIST: {
+                String list = listUsers();
+                if (list.isEmpty()) list = "(sin usuarios)";
+                client.send("[SERVIDOR] Usuarios conectados: " + list);
+                return;
+            }
+            case BinaryProtocol.STATS:
+                client.send("[SERVIDOR] Estadísticas: " + metrics.summary());
+                return;
+            case BinaryProtocol.QUIT:
+                client.send("[SERVIDOR] Desconectando. ¡Hasta luego!");
+                remove(client);
+                client.close();
+                return;
+
+            // ---- Historial ----
+            case BinaryProtocol.HISTORY: {
+                int n = MessageLog.parseCount(arg);
+                if (n < 0) {
+                    client.send("[SERVIDOR] Uso: /historial [N] (de 1 a " + MessageLog.MAX_RECENT + ")");
+                } else {
+                    sendHistory(client, rooms.roomOf(client), n, true);
+                }
+                return;
+            }
+
+            // ---- Salas ----
+            case BinaryProtocol.ROOMS:
+                client.send("[SERVIDOR] Salas: " + rooms.describe());
+                return;
+            case BinaryProtocol.JOIN: {
+                String room = RoomIndex.normalize(arg);
+                if (room == null) {
+                    client.send("[SERVIDOR] Uso: /unirse <sala> (una palabra, hasta " + RoomIndex.MAX_NAME + " letras)");
+                } else {
+                    joinRoom(client, room);
+                }
+                return;
+            }
+            case BinaryProtocol.LEAVE:
+                joinRoom(client, RoomIndex.DEFAULT);   // Dejar una sala es volver a "general"
+                return;
+
+            // ---- Mensaje normal: solo a la sala del emisor ----
+            case BinaryProtocol.MESSAGE: {
+                if (arg.isEmpty()) return;
+                String msg = "[" + client.getUsername() + "] " + arg;
+                Log.info("{}", msg);
+                String room = rooms.roomOf(client);
+                Frame frame = Frame.of(msg);
+                publish(room, frame, client, true);
+                metrics.fanout.record((System.nanoTime() - received) / 1000);
+                MessageLog log = history;
+                if (log != null) log.append(room, frame);   // Solo encola: no demora el broadcast
+                return;
+            }
+            default:
+                client.send("[SERVIDOR] Comando desconocido (" + type + ").");
+        }
+    }
+
+    private void login(ChatClient client, String name) {
+        if (name.isEmpty()) {
+            client.send("[SERVIDOR] Nombre vacío. Intente de nuevo:");
+            return;
+        }
+        ClusterRelay c = cluster;
+        if ((c != null && c.isRemoteUser(name)) || !users.claim(client, name)) {
+            client.send("[SERVIDOR] El nombre " + name + " ya está en uso. Intente con otro:");
+            return;
+        }
+        client.setUsername(name);
+        metrics.logins.increment();
+        if (c != null) c.userJoined(name);
+        rooms.join(client, RoomIndex.DEFAULT);
+        Log.info(tag + " Nuevo usuario: {}", name);
+        client.send("[SERVIDOR] Conectado como: " + name + ". Comandos: /listar o listar, /quitar o quitar, "
+                + "/salas, /unirse <sala>, /dejar, /historial [N], /estadisticas");
+        sendHistory(client, RoomIndex.DEFAULT, replay, false);
+        publish(RoomIndex.DEFAULT, Frame.of("[SERVIDOR] " + name + " se ha unido al chat."), client, false);
+    }
+
+    // Mandar al cliente los últimos n mensajes de la sala. Cada línea es una vista de las páginas
+    // mapeadas del historial: se encola tal cual, sin copiarla ni decodificarla.
+    private void sendHistory(ChatClient client, String room, int n, boolean asked) {
+        MessageLog log = history;
+        if (log == null) {
+            if (asked) client.send("[SERVIDOR] El historial está desactivado.");
+            return;
+        }
+        List<ByteBuffer> lines = log.recent(room, n);
+        if (lines.isEmpty()) {
+            if (asked) client.send("[SERVIDOR] No hay mensajes anteriores en " + room + ".");
+            return;
+        }
+        client.send("[SERVIDOR] Últimos " + lines.size() + " mensajes de " + room + ":");
+        for (ByteBuffer line : lines) client.send(Frame.wrap(line));
+    }
+
+    // Cambiar de sala a un cliente y avisar en la sala que deja y en la nueva
+    private void joinRoom(ChatClient client, String room) {
+        String previous = rooms.join(client, room);
+        if (room.equals(previous)) {
+            client.send("[SERVIDOR] Ya estás en la sala " + room + ".");
+            return;
+        }
+        String username = client.getUsername();
+        if (previous != null) {
+            publish(previous, Frame.of("[SERVIDOR] " + username + " dejó la sala " + previous + "."), client, false);
+        }
+        client.send("[SERVIDOR] Ahora estás en la sala " + room + ".");
+        publish(room, Frame.of("[SERVIDOR] " + username + " se ha unido a la sala " + room + "."), client, false);
+    }
+
+    // Dar de baja a un cliente y avisar a su sala (no hace nada si no tenía login o ya se fue)
+    private void remove(ChatClient client) {
+        String username = users.release(client);
+        if (username == null) return;
+        ClusterRelay c = cluster;
+        if (c != null) c.userLeft(username);
+        String room = rooms.leave(client);
+        publish(room, Frame.of("[SERVIDOR] " + username + " se ha desconectado."), null, false);
+        Log.info(tag + " {} desconectado.", username);
+        RateLimiter limiter = client.limiter();
+        if (limiter != null && limiter.limited() > 0) {
+            Log.info(tag + " A {} se le limitaron {} mensajes o comandos.", username, limiter.limited());
+        }
+    }
+
+    // Broadcast de algo que pasó en este servidor: a la sala local y, en un cluster, a los
+    // demás nodos (chat = mensaje de usuario, que los otros también guardan en su historial)
+    private void publish(String room, Frame frame, ChatClient exclude, boolean chat) {
+        broadcast(room, frame, exclude);
+        ClusterRelay c = cluster;
+        if (c != null) c.publish(room, frame, chat);
+    }
+
+    // Enviar un mensaje a los miembros de una sala (excepto a quien lo envió).
+    // Se codifica una sola vez y todos los destinatarios comparten el mismo buffer.
+    void broadcast(String room, String msg, ChatClient exclude) {
+        broadcast(room, Frame.of(msg), exclude);
+    }
+
+    void broadcast(String room, Frame frame, ChatClient exclude) {
+        for (ChatClient c : rooms.members(room)) {
+            if (!c.equals(exclude)) {   // No reenviar al emisor
+                c.send(frame);          // Encolar (nunca espera: el motor no se puede frenar)
+            }
+        }
+    }
+}
@@ -1,51 +1,106 @@
-import java.io.*;
-import java.net.*;
-import java.util.Scanner;
-
-public class Client {
-    public static void main(String[] args) {
-        // Uso: java Client <host> <puerto>
-        String host = "127.0.0.1";
-        int port = 5000;
-
-        if (args.length >= 1) host = args[0];
-        if (args.length >= 2) port = Integer.parseInt(args[1]);
-
-        System.out.println("[CLIENTE] Conectando a " + host + ":" + port + " ...");
-
-        try (Socket socket = new Socket(host, port)) {
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
-
-            Scanner scanner = new Scanner(System.in, "UTF-8");
-
-            // Hilo para leer mensajes del servidor y mostrarlos en consola
-            Thread reader = new Thread(() -> {
-                try {
-                    String srvMsg;
-                    while ((srvMsg = in.readLine()) != null) {
-                        System.out.println(srvMsg);
-                    }
-                } catch (IOException ignored) {
-                } finally {
-                    System.out.println("[CLIENTE] Conexión cerrada por el servidor.");
-                }
-            });
-            reader.setDaemon(true);
-            reader.start();
-
-            // Enviar lo que se escriba por consola
-            while (true) {
-                String line = scanner.nextLine();
-                out.println(line);
-                if (line.trim().equalsIgnoreCase("/quitar")) {
-                    break; // cerrar desde cliente
-                }
-            }
-
-            System.out.println("[CLIENTE] Saliendo...");
-        } catch (IOException e) {
-            System.err.println("[CLIENTE] Error: " + e.getMessage());
-        }
-    }
-}
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Client {
+    public static void main(String[] args) {
+        // Uso: java Client <host> <puerto> [--binario]
+        // Con --binario habla el protocolo de frames; una línea que termina en '\' sigue en la próxima
+        Options opts = new Options(args);
+        String host = opts.positional(0, "127.0.0.1");
+        int port = Integer.parseInt(opts.positional(1, "5000"));
+        boolean binary = opts.getBoolean("binario", false);
+
+        System.out.println("[CLIENTE] Conectando a " + host + ":" + port + " ...");
+
+        try (Socket socket = new Socket(host, port)) {
+            Scanner scanner = new Scanner(System.in, "UTF-8");
+            if (binary) {
+                runBinary(socket, scanner);
+                return;
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+
+            // Hilo para leer mensajes del servidor y mostrarlos en consola
+            Thread reader = new Thread(() -> {
+                try {
+                    String srvMsg;
+                    while ((srvMsg = in.readLine()) != null) {
+                        System.out.println(srvMsg);
+                    }
+                } catch (IOException ignored) {
+                } finally {
+                    System.out.println("[CLIENTE] Conexión cerrada por el servidor.");
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+
+            // Enviar lo que se escriba por consola
+            while (true) {
+                String line = scanner.nextLine();
+                out.println(line);
+                if (line.trim().equalsIgnoreCase("/quitar")) {
+                    break; // cerrar desde cliente
+                }
+            }
+
+            System.out.println("[CLIENTE] Saliendo...");
+        } catch (IOException e) {
+            System.err.println("[CLIENTE] Error: " + e.getMessage());
+        }
+    }
+
+    // Mismo uso que en texto, pero cada línea (o grupo de líneas) viaja como un frame con su tipo
+    private static void runBinary(Socket socket, Scanner scanner) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        OutputStream out = socket.getOutputStream();
+        out.write(BinaryProtocol.HANDSHAKE);
+
+        // La bienvenida llega en texto antes de que el servidor lea el saludo
+        ByteArrayOutputStream welcome = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') welcome.write(b);
+        System.out.println(welcome.toString(StandardCharsets.UTF_8));
+
+        // Hasta que el servidor confirma el nombre, lo que se escribe se manda como LOGIN
+        AtomicBoolean loggedIn = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            try {
+                BinaryProtocol.Message message;
+                while ((message = BinaryProtocol.read(in)) != null) {
+                    if (message.type != BinaryProtocol.TEXT) continue;
+                    String text = message.text();
+                    if (text.startsWith("[SERVIDOR] Conectado como")) loggedIn.set(true);
+                    System.out.println(text);
+                }
+            } catch (IOException ignored) {
+            } finally {
+                System.out.println("[CLIENTE] Conexión cerrada por el servidor.");
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+
+        while (true) {
+            String line = scanner.nextLine();
+            StringBuilder text = new StringBuilder();
+            while (line.endsWith("\\")) {       // Mensaje de varias líneas
+                text.append(line, 0, line.length() - 1).append('\n');
+                line = scanner.nextLine();
+            }
+            line = text.append(line).toString().trim();
+            if (line.isEmpty()) continue;
+
+            byte type = loggedIn.get() ? BinaryProtocol.typeOf(line) : BinaryProtocol.LOGIN;
+            String arg = type == BinaryProtocol.LOGIN ? line : BinaryProtocol.argOf(type, line);
+            out.write(BinaryProtocol.encode(type, arg).array());
+            if (type == BinaryProtocol.QUIT) break;
+        }
+
+        System.out.println("[CLIENTE] Saliendo...");
+    }
+}
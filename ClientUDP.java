@@ -1,61 +1,113 @@
-import java.net.*;
-import java.util.Scanner;
-
-public class ClientUDP {
-    public static void main(String[] args) {
-        Scanner sc = new Scanner(System.in);
-
-        System.out.print("Ingrese la IP del servidor: ");
-        String serverIP = sc.nextLine();
-
-        System.out.print("Ingrese el puerto del servidor: ");
-        int serverPort = Integer.parseInt(sc.nextLine());
-
-        System.out.print("Ingrese su nombre de usuario: ");
-        String username = sc.nextLine();
-
-        try (DatagramSocket socket = new DatagramSocket()) {
-            InetAddress serverAddr = InetAddress.getByName(serverIP);
-
-            // Enviar nombre de usuario al servidor
-            send(socket, username, serverAddr, serverPort);
-
-            // Hilo para escuchar mensajes entrantes
-            Thread listener = new Thread(() -> {
-                byte[] buffer = new byte[1024];
-                while (true) {
-                    try {
-                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                        socket.receive(packet);
-                        String msg = new String(packet.getData(), 0, packet.getLength(), "UTF-8");
-                        System.out.println(msg);
-                    } catch (Exception e) {
-                        break;
-                    }
-                }
-            });
-            listener.setDaemon(true);
-            listener.start();
-
-            // Enviar mensajes al servidor
-            System.out.println("Conectado al chat UDP. Escriba mensajes o use /listar o /quitar");
-            while (true) {
-                String msg = sc.nextLine();
-                send(socket, msg, serverAddr, serverPort);
-                if (msg.equalsIgnoreCase("/quitar")) {
-                    break;
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("[CLIENTE-UDP] Error: " + e.getMessage());
-        }
-
-        sc.close();
-    }
-
-    private static void send(DatagramSocket socket, String msg, InetAddress addr, int port) throws Exception {
-        byte[] data = msg.getBytes("UTF-8");
-        DatagramPacket packet = new DatagramPacket(data, data.length, addr, port);
-        socket.send(packet);
-    }
-}
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+public class ClientUDP {
+    private static final int MAX_DATAGRAM = 65507;   // Carga útil máxima de un datagrama UDP
+
+    // Uso: java ClientUDP [--latido-s=N] [--fiable] [--mtu=N] [--perdida=0..1] [--ventana=N] [--rto-min-ms=N] [--reintentos=N]
+    // Con --fiable los mensajes llevan número de secuencia y se confirman: llegan todos y en orden,
+    // varios cortos viajan en un mismo datagrama y uno más largo que el MTU se parte en fragmentos.
+    // Cada --latido-s segundos (10 por defecto, 0 = nunca) se manda /latido para que el servidor
+    // no dé la sesión por abandonada mientras el usuario solo lee.
+    public static void main(String[] args) {
+        Options opts = new Options(args);
+        Scanner sc = new Scanner(System.in);
+
+        System.out.print("Ingrese la IP del servidor: ");
+        String serverIP = sc.nextLine();
+
+        System.out.print("Ingrese el puerto del servidor: ");
+        int serverPort = Integer.parseInt(sc.nextLine());
+
+        System.out.print("Ingrese su nombre de usuario: ");
+        String username = sc.nextLine();
+
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            InetSocketAddress server = new InetSocketAddress(InetAddress.getByName(serverIP), serverPort);
+            ReliableEndpoint reliable = null;
+            if (opts.getBoolean("fiable", false)) {
+                reliable = new ReliableEndpoint(channel, ReliableEndpoint.Config.from(opts), new ReliableEndpoint.Listener() {
+                    public void deliver(SocketAddress from, ByteBuffer message) {
+                        System.out.println(StandardCharsets.UTF_8.decode(message));
+                    }
+
+                    public void lost(SocketAddress peer) {
+                        System.out.println("[CLIENTE-UDP] El servidor no responde.");
+                    }
+                });
+            }
+
+            // Enviar nombre de usuario al servidor
+            send(channel, reliable, username, server);
+
+            // Hilo para escuchar mensajes entrantes
+            ReliableEndpoint layer = reliable;
+            Thread listener = new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM);
+                while (true) {
+                    try {
+                        buffer.clear();
+                        SocketAddress from = channel.receive(buffer);
+                        buffer.flip();
+                        if (layer == null || !layer.receive(from, buffer)) {
+                            System.out.println(StandardCharsets.UTF_8.decode(buffer));
+                        }
+                    } catch (Exception e) {
+                        break;
+                    }
+                }
+            });
+            listener.setDaemon(true);
+            listener.start();
+
+            // Hilo de latidos: el servidor desconecta a quien pasa --inactividad-s sin mandar nada
+            long heartbeatMillis = opts.getInt("latido-s", 10) * 1000L;
+            if (heartbeatMillis > 0) {
+                Thread heartbeat = new Thread(() -> {
+                    while (true) {
+                        try {
+                            Thread.sleep(heartbeatMillis);
+                            send(channel, layer, "/latido", server);
+                        } catch (Exception e) {
+                            break;
+                        }
+                    }
+                });
+                heartbeat.setDaemon(true);
+                heartbeat.start();
+            }
+
+            // Enviar mensajes al servidor
+            System.out.println("Conectado al chat UDP. Escriba mensajes o use /listar, /salas, /unirse <sala>, /dejar, /historial [N], /estadisticas o /quitar");
+            while (true) {
+                String msg = sc.nextLine();
+                send(channel, reliable, msg, server);
+                if (msg.equalsIgnoreCase("/quitar")) {
+                    break;
+                }
+            }
+            if (reliable != null) {
+                Thread.sleep(500);   // Dar tiempo a que se confirme (o retransmita) el /quitar
+                reliable.shutdown();
+            }
+        } catch (Exception e) {
+            System.err.println("[CLIENTE-UDP] Error: " + e.getMessage());
+        }
+
+        sc.close();
+    }
+
+    private static void send(DatagramChannel channel, ReliableEndpoint reliable, String msg, SocketAddress server)
+            throws IOException {
+        byte[] data = msg.getBytes(StandardCharsets.UTF_8);
+        if (reliable != null) {
+            reliable.send(server, data);
+        } else {
+            channel.send(ByteBuffer.wrap(data), server);
+        }
+    }
+}
@@ -0,0 +1,535 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+// --------------------- FEDERACIÓN DE SERVIDORES ---------------------
+// Varios Server (nodos) unidos por enlaces de relevo TCP: lo que se publica en una sala de un
+// nodo llega a los usuarios de esa sala en todos, y /listar muestra los usuarios del cluster.
+// Los enlaces forman cualquier grafo conexo (cadena, estrella, malla): cada nodo escucha en su
+// puerto de relevo y se conecta a los pares de --pares, reintentando si el enlace se corta.
+// Basta con que uno de cada par nombre al otro; si se nombran los dos quedan dos enlaces, que
+// funcionan igual (las copias repetidas se descartan).
+//
+// Cada novedad lleva el nodo de origen, su encarnación (hora de arranque) y un número que el
+// origen incrementa. Un nodo acepta una novedad solo si no la vio ya (recuerda las últimas
+// WINDOW de cada origen en un mapa de bits, como el SACK de ReliableEndpoint), la aplica y la
+// reenvía por los demás enlaces; una copia que vuelve por otro camino se descarta, así que no
+// hay ciclos aunque el grafo los tenga, y una novedad que llega después de otra más nueva (por
+// un camino más lento) igual se entrega. Las altas y bajas se aplican por nombre: gana la de
+// número mayor, así una alta atrasada no revive a quien ya se fue.
+//
+// Al abrirse un enlace cada lado manda la foto (usuarios) de todos los nodos que conoce, y
+// con eso se rearma el estado después de una caída. La foto dice hasta qué número de ese
+// origen llegó todo a quien la sacó, y trae el número de cada alta o baja posterior. Cada nodo manda un latido por segundo; si
+// de un origen no llega nada durante el vencimiento, sus usuarios se quitan (estado blando:
+// nada queda colgado aunque un nodo muera sin avisar).
+//
+// Los frames usan el encuadre de BinaryProtocol (con compresión de los grandes) y cada enlace
+// tiene su cola y su escritor por lotes, como un cliente: publicar nunca espera a la red.
+final class ClusterRelay {
+    // Tipos de frame entre nodos
+    private static final byte HELLO = 1;     // Primer frame de cada lado: id del nodo
+    private static final byte STATE = 2;     // Foto de un nodo: todos sus usuarios
+    private static final byte JOINED = 3;    // Entró un usuario
+    private static final byte LEFT = 4;      // Salió un usuario
+    private static final byte CHAT = 5;      // Mensaje de chat de una sala (va al historial)
+    private static final byte NOTICE = 6;    // Aviso del servidor en una sala
+    private static final byte PING = 7;      // Latido
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    // Entrega a los usuarios locales de lo que llega de otros nodos
+    interface Listener {
+        void deliver(String room, Frame line, boolean chat);
+    }
+
+    private static final int WINDOW = 4096;  // Novedades recientes de cada origen que se recuerdan
+
+    // Lo que se sabe de un nodo (incluido este). Todo con el lock del relevo.
+    private static final class Node {
+        long incarnation;
+        long seq;                                        // Mayor novedad aceptada
+        long contiguous;                                 // Llegó todo hasta acá (o lo cubre una foto)
+        long covered;                                    // Altas y bajas hasta acá ya vienen en una foto
+        final long[] seen = new long[WINDOW / 64];       // Aceptadas en (seq - WINDOW, seq], bit s % WINDOW
+        boolean alive;
+        final Map<String, String> users = new HashMap<>();   // minúsculas -> nombre
+        final Map<String, Long> changes = new HashMap<>();   // minúsculas -> número de su última alta o baja
+
+        // true si la novedad s no había llegado (y queda anotada). Las anteriores a la ventana se
+        // descartan: ya llegaron o no van a llegar.
+        boolean accept(long s) {
+            if (s > seq) {
+                for (long i = Math.max(seq + 1, s - WINDOW + 1); i <= s; i++) seen[slot(i)] &= ~bit(i);
+                seq = s;
+                contiguous = Math.max(contiguous, s - WINDOW);
+            } else if (s <= seq - WINDOW || (seen[slot(s)] & bit(s)) != 0) {
+                return false;
+            }
+            seen[slot(s)] |= bit(s);
+            advance();
+            return true;
+        }
+
+        // Correr contiguous sobre lo que ya llegó después
+        void advance() {
+            while (contiguous < seq && (seen[slot(contiguous + 1)] & bit(contiguous + 1)) != 0) contiguous++;
+        }
+
+        private static int slot(long s) {
+            return (int) ((s % WINDOW) >>> 6);
+        }
+
+        private static long bit(long s) {
+            return 1L << (s & 63);
+        }
+
+        // El nodo arrancó de nuevo: lo anterior no vale
+        void restart(long incarnation) {
+            this.incarnation = incarnation;
+            seq = contiguous = covered = 0;
+            Arrays.fill(seen, 0);
+            users.clear();
+            changes.clear();
+        }
+
+        // Alta o baja de name en la novedad s: gana la de número mayor
+        boolean change(long s, String name, boolean joined) {
+            String key = name.toLowerCase();
+            if (s <= covered || s < changes.getOrDefault(key, 0L)) return false;
+            changes.put(key, s);
+            if (joined) {
+                users.put(key, name);
+            } else {
+                users.remove(key);
+            }
+            // Lo anterior a contiguous ya no puede llegar: ni la ventana ni una foto lo dejan pasar
+            if (changes.size() > 2 * WINDOW) changes.values().removeIf(c -> c <= contiguous);
+            return true;
+        }
+    }
+
+    private final String id;
+    private final Node self = new Node();
+    private final Map<String, Node> nodes = new HashMap<>();        // Otros nodos (con el lock)
+    private final List<Link> links = new CopyOnWriteArrayList<>();  // Enlaces ya presentados
+    private final TimingWheel<String> silence;                      // Nodos de los que se esperan noticias
+    private final Listener listener;
+    private final OutboundQueue.Policy policy;
+    private final long heartbeatMillis;
+    private long version;                                           // Cambia con cada alta o baja del cluster
+    private long rosterVersion = -1;
+    private String roster = "";
+
+    // --nodo=ID --relevo=puerto --pares=host:puerto,... --relevo-latido-ms=N --relevo-vencimiento-s=N
+    // --relevo-espera-us=N; null si no se pidió ni puerto de relevo ni pares
+    static ClusterRelay open(Options opts, int clientPort, Listener listener) throws IOException {
+        int relayPort = opts.getInt("relevo", 0);
+        String peers = opts.get("pares", "");
+        if (relayPort == 0 && peers.isEmpty()) return null;
+        ClusterRelay relay = new ClusterRelay(opts.get("nodo", defaultId(clientPort)), listener,
+                opts.getInt("relevo-latido-ms", 1000),
+                TimeUnit.SECONDS.toNanos(opts.getInt("relevo-vencimiento-s", 5)),
+                TimeUnit.MICROSECONDS.toNanos(opts.getInt("relevo-espera-us", 500)));
+        if (relayPort > 0) relay.listen(relayPort);
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) continue;
+            int colon = peer.lastIndexOf(':');
+            relay.dial(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)));
+        }
+        return relay;
+    }
+
+    ClusterRelay(String id, Listener listener, long heartbeatMillis, long timeoutNanos, long lingerNanos) {
+        this.id = id;
+        this.listener = listener;
+        this.heartbeatMillis = heartbeatMillis;
+        this.silence = new TimingWheel<>(timeoutNanos, TimeUnit.MILLISECONDS.toNanos(100));
+        // Un enlace lento se corta y al volver se rearma con las fotos; nunca frena al que publica
+        this.policy = new OutboundQueue.Policy(OutboundQueue.Action.DESCONECTAR, 64 * 1024, 64L * 1024 * 1024,
+                256, 256 * 1024, lingerNanos);
+        self.incarnation = System.currentTimeMillis();
+        self.alive = true;
+        Thread heartbeat = new Thread(this::heartbeatLoop, "relevo-latido");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        Log.info("[CLUSTER] Nodo {}", id);
+    }
+
+    private static String defaultId(int port) {
+        try {
+            return InetAddress.getLocalHost().getHostName() + ":" + port;
+        } catch (UnknownHostException e) {
+            return "nodo:" + port;
+        }
+    }
+
+    // ---------------- NOVEDADES DE ESTE NODO ----------------
+
+    void userJoined(String name) {
+        emit(JOINED, utf(name));
+    }
+
+    void userLeft(String name) {
+        emit(LEFT, utf(name));
+    }
+
+    // Una línea ya codificada para una sala; chat = mensaje de usuario (los demás nodos lo guardan en su historial)
+    void publish(String room, Frame line, boolean chat) {
+        ByteBuffer data = line.buffer();
+        byte[] name = room.getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[1 + name.length + data.remaining()];
+        body[0] = (byte) name.length;
+        System.arraycopy(name, 0, body, 1, name.length);
+        data.get(body, 1 + name.length, data.remaining());
+        emit(chat ? CHAT : NOTICE, body);
+    }
+
+    // El nombre lo usa alguien en otro nodo (sin distinguir mayúsculas)
+    synchronized boolean isRemoteUser(String name) {
+        String key = name.toLowerCase();
+        for (Node n : nodes.values()) {
+            if (n.alive && n.users.containsKey(key)) return true;
+        }
+        return false;
+    }
+
+    // Enlaces con otros nodos ya presentados
+    int links() {
+        return links.size();
+    }
+
+    // Usuarios de todo el cluster, "ana, beto, carla"; se rearma solo si cambió alguno
+    synchronized String roster() {
+        if (rosterVersion == version) return roster;
+        List<String> names = new ArrayList<>(self.users.values());
+        for (Node n : nodes.values()) {
+            if (n.alive) names.addAll(n.users.values());
+        }
+        names.sort(String.CASE_INSENSITIVE_ORDER);
+        roster = String.join(", ", names);
+        rosterVersion = version;
+        return roster;
+    }
+
+    // Numerar, aplicar y mandar por todos los enlaces
+    private synchronized void emit(byte type, byte[] body) {
+        self.seq++;
+        self.contiguous = self.seq;                      // De sí mismo sabe todo
+        if (type == JOINED || type == LEFT) {
+            apply(self, type, self.seq, body);
+        }
+        Frame frame = encode(type, id, self.incarnation, self.seq, body);
+        for (Link link : links) link.send(frame);
+    }
+
+    // ---------------- NOVEDADES DE OTROS NODOS ----------------
+
+    // Aceptar (si es nueva), aplicar y reenviar por los demás enlaces. Los mensajes para las
+    // salas se entregan después, fuera del lock, porque el motor puede hacer esperar la entrega
+    // hasta que haya lugar en su anillo, y mientras tanto el motor mismo puede querer publicar.
+    private void receive(Link from, BinaryProtocol.Message message) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message.payload));
+        String origin = in.readUTF();
+        long incarnation = in.readLong();
+        long seq = in.readLong();
+        int bodyStart = message.payload.length - in.available();
+        byte[] body = in.readAllBytes();
+        synchronized (this) {
+            if (origin.equals(id)) return;               // Una novedad propia que dio la vuelta
+            Node node = nodes.computeIfAbsent(origin, k -> new Node());
+            if (incarnation < node.incarnation) return;
+            if (incarnation != node.incarnation) {
+                node.restart(incarnation);
+                version++;
+            }
+            // Una foto no es una novedad propia del origen (su número dice hasta dónde llega):
+            // sirve si trae más de lo que ya se sabe, y no ocupa lugar en la ventana
+            if (message.type == STATE ? seq <= node.contiguous : !node.accept(seq)) return;
+            if (!node.alive) {
+                node.alive = true;
+                Log.info("[CLUSTER] Nodo {} visible (vía {})", origin, from.peer);
+            }
+            silence.add(origin);                         // Si ya estaba, cuenta como actividad
+            apply(node, message.type, seq, body);
+            Frame forward = Frame.wrap(BinaryProtocol.encode(message.type, message.payload, 0, -1));
+            for (Link link : links) {
+                if (link != from) link.send(forward);
+            }
+        }
+        if (message.type == CHAT || message.type == NOTICE) {
+            int roomLength = body[0] & 0xff;
+            String room = new String(body, 1, roomLength, StandardCharsets.UTF_8);
+            int lineStart = bodyStart + 1 + roomLength;
+            ByteBuffer line = ByteBuffer.wrap(message.payload, lineStart, message.payload.length - lineStart);
+            listener.deliver(room, Frame.wrap(line.slice()), message.type == CHAT);
+        }
+    }
+
+    // Cambiar los usuarios de un nodo con la novedad (o la foto) número seq (con el lock)
+    private void apply(Node node, byte type, long seq, byte[] body) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            switch (type) {
+                case STATE:
+                    merge(node, seq, in);
+                    version++;
+                    break;
+                case JOINED:
+                case LEFT:
+                    if (node.change(seq, in.readUTF(), type == JOINED)) version++;
+                    break;
+                default:
+                    break;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Juntar una foto con lo que ya se sabe. Hasta upTo manda la foto; después, por nombre, la
+    // alta o baja de número mayor (la de la foto o la que ya llegó por otro camino).
+    private static void merge(Node node, long upTo, DataInputStream in) throws IOException {
+        Map<String, String> present = new HashMap<>();
+        Map<String, Long> changed = new HashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            String name = in.readUTF();
+            long seq = in.readLong();
+            String key = name.toLowerCase();
+            changed.put(key, seq);
+            if (in.readBoolean()) present.put(key, name);
+        }
+        // Quien no figura se fue antes de upTo, salvo que acá haya algo posterior
+        node.users.keySet().removeIf(k -> !changed.containsKey(k) && node.changes.getOrDefault(k, 0L) <= upTo);
+        for (Map.Entry<String, Long> e : changed.entrySet()) {
+            String key = e.getKey();
+            long local = node.changes.getOrDefault(key, 0L);
+            if (local > upTo && local >= e.getValue()) continue;   // Lo de acá es más nuevo
+            String name = present.get(key);
+            if (name != null) {
+                node.users.put(key, name);
+            } else {
+                node.users.remove(key);
+            }
+            node.changes.put(key, e.getValue());
+        }
+        node.covered = Math.max(node.covered, upTo);
+        node.contiguous = Math.max(node.contiguous, upTo);
+        node.advance();
+        node.changes.values().removeIf(c -> c <= node.contiguous);
+    }
+
+    // Latido propio y vencimiento de los nodos callados
+    private void heartbeatLoop() {
+        while (true) {
+            try {
+                Thread.sleep(heartbeatMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            emit(PING, new byte[0]);
+            for (String origin : silence.advance(System.nanoTime())) expire(origin);
+        }
+    }
+
+    private synchronized void expire(String origin) {
+        Node node = nodes.get(origin);
+        if (node == null || !node.alive) return;
+        node.alive = false;
+        Log.warn("[CLUSTER] Nodo {} sin noticias, se quitan sus {} usuarios", origin, node.users.size());
+        node.users.clear();
+        node.changes.clear();
+        node.covered = node.contiguous = Math.max(node.contiguous, node.seq);   // Lo viejo no revive
+        version++;
+    }
+
+    // ---------------- ENLACES ----------------
+
+    private void listen(int port) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        Log.info("[CLUSTER] Relevo escuchando en puerto {}", port);
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    SocketChannel channel = server.accept();
+                    Thread reader = new Thread(() -> new Link(channel).run(), "relevo-" + channel.getRemoteAddress());
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException e) {
+                    Log.error("[CLUSTER] Error aceptando enlaces: {}", e.getMessage());
+                    return;
+                }
+            }
+        }, "relevo-aceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    // Mantener un enlace con el par: reconectar con espera creciente (hasta 10 s) cada vez que se corta
+    private void dial(String host, int port) {
+        Thread dialer = new Thread(() -> {
+            long backoff = 250;
+            while (true) {
+                try {
+                    SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+                    backoff = 250;
+                    new Link(channel).run();
+                } catch (IOException e) {
+                    Log.debug("[CLUSTER] Sin enlace con {}: {}", host + ":" + port, e.getMessage());
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(10_000, backoff * 2);
+            }
+        }, "relevo-" + host + ":" + port);
+        dialer.setDaemon(true);
+        dialer.start();
+    }
+
+    // Un enlace con otro nodo: el hilo que lo crea lee, otro hilo escribe la cola por lotes
+    private final class Link {
+        private final SocketChannel channel;     // Bloqueante
+        private final OutboundQueue queue = new OutboundQueue(policy);
+        private volatile String peer = "?";
+
+        Link(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void send(Frame frame) {
+            if (!queue.offer(frame)) {
+                Log.warn("[CLUSTER] Enlace con {} lento, se corta", peer);
+                abort();
+            }
+        }
+
+        void abort() {
+            queue.close();
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+
+        // Presentarse, registrar el enlace con las fotos y atender lo que llegue hasta que se corte
+        void run() {
+            Thread writer = new Thread(this::writeLoop, Thread.currentThread().getName() + "-escritor");
+            writer.setDaemon(true);
+            try {
+                Socket socket = channel.socket();
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout((int) Math.max(1000, 3 * heartbeatMillis));   // Sin latidos: enlace muerto
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                send(Frame.wrap(BinaryProtocol.encode(HELLO, id)));
+                writer.start();
+                BinaryProtocol.Message hello = BinaryProtocol.read(in, MAX_PAYLOAD);
+                if (hello == null || hello.type != HELLO) throw new IOException("Falta la presentación");
+                peer = hello.text();
+                if (peer.equals(id)) throw new IOException("Enlace consigo mismo");
+                register(this);
+                Log.info("[CLUSTER] Enlace con {} ({})", peer, channel.getRemoteAddress());
+                BinaryProtocol.Message message;
+                while ((message = BinaryProtocol.read(in, MAX_PAYLOAD)) != null) receive(this, message);
+            } catch (IOException | UncheckedIOException e) {
+                Log.debug("[CLUSTER] Enlace con {}: {}", peer, e.getMessage());
+            } finally {
+                if (links.remove(this)) Log.warn("[CLUSTER] Enlace con {} cortado", peer);
+                abort();
+            }
+        }
+
+        private void writeLoop() {
+            WriteBatch batch = new WriteBatch(policy);
+            try {
+                Frame frame;
+                while ((frame = queue.take()) != null) {
+                    batch.add(frame);
+                    batch.fill(queue);
+                    long deadline = System.nanoTime() + policy.lingerNanos;
+                    while (!batch.isFull() && (frame = queue.poll(deadline - System.nanoTime())) != null) {
+                        batch.add(frame);
+                        batch.fill(queue);
+                    }
+                    while (!batch.isEmpty()) batch.writeTo(channel);
+                }
+            } catch (IOException | InterruptedException e) {
+                // el par ya no recibe
+            } finally {
+                abort();
+            }
+        }
+    }
+
+    // Agregar el enlace y mandarle las fotos de todos los nodos conocidos, bajo el mismo lock que
+    // las novedades: nada se publica entre la foto y el alta, y nada se pierde
+    private synchronized void register(Link link) {
+        link.send(encode(STATE, id, self.incarnation, self.contiguous, snapshot(self)));
+        for (Map.Entry<String, Node> e : nodes.entrySet()) {
+            Node node = e.getValue();
+            if (node.alive) link.send(encode(STATE, e.getKey(), node.incarnation, node.contiguous, snapshot(node)));
+        }
+        links.add(link);
+    }
+
+    // ---------------- CODIFICACIÓN ----------------
+
+    private static Frame encode(byte type, String origin, long incarnation, long seq, byte[] body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + body.length);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(origin);
+            out.writeLong(incarnation);
+            out.writeLong(seq);
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Frame.wrap(BinaryProtocol.encode(type, bytes.toByteArray(), 0, -1));
+    }
+
+    // Foto: cada usuario (nombre, número de su alta, true) y cada baja posterior a contiguous
+    // (nombre, número, false)
+    private static byte[] snapshot(Node node) {
+        List<String> gone = new ArrayList<>();
+        for (Map.Entry<String, Long> e : node.changes.entrySet()) {
+            if (e.getValue() > node.contiguous && !node.users.containsKey(e.getKey())) gone.add(e.getKey());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(node.users.size() + gone.size());
+            for (Map.Entry<String, String> e : node.users.entrySet()) {
+                out.writeUTF(e.getValue());
+                out.writeLong(node.changes.getOrDefault(e.getKey(), 0L));
+                out.writeBoolean(true);
+            }
+            for (String key : gone) {
+                out.writeUTF(key);
+                out.writeLong(node.changes.get(key));
+                out.writeBoolean(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] utf(String text) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
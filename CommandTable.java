@@ -0,0 +1,119 @@
+import java.nio.charset.StandardCharsets;
+
+// --------------------- TABLA DE COMANDOS ---------------------
+// Reconoce los comandos del protocolo de texto directamente sobre los bytes recibidos, sin
+// armar un String por línea ni pasarla a minúsculas: recorta los espacios, separa la primera
+// palabra y la busca entre los comandos registrados de ese largo, comparando sin distinguir
+// mayúsculas (los nombres son ASCII). Solo se decodifica lo que de verdad se usa: el texto de
+// un mensaje que va a salir en broadcast, o el argumento de /unirse y /historial.
+//
+// Cada comando se registra con su tipo del protocolo binario (los dos protocolos llegan al
+// motor igual) y sus banderas. Un comando nuevo es una línea más en chat() o un register()
+// del servidor que lo necesite, antes de empezar a leer.
+final class CommandTable {
+    static final int BARE = 1;     // También sin barra, si la línea es solo la palabra ("listar")
+    static final int ARG = 2;      // Lleva argumento después de un espacio ("/unirse juegos")
+
+    private static final int MAX_NAME = 16;
+
+    private static final class Entry {
+        final byte[] name;         // En minúsculas, sin la barra
+        final byte type;
+        final int flags;
+
+        Entry(byte[] name, byte type, int flags) {
+            this.name = name;
+            this.type = type;
+            this.flags = flags;
+        }
+    }
+
+    private final Entry[][] byLength = new Entry[MAX_NAME + 1][];   // Comandos por largo del nombre
+    private final boolean[] takesArg = new boolean[256];            // Por tipo
+
+    // Los comandos del chat
+    static CommandTable chat() {
+        return new CommandTable()
+                .register("listar", BinaryProtocol.LIST, BARE)
+                .register("quitar", BinaryProtocol.QUIT, BARE)
+                .register("salas", BinaryProtocol.ROOMS, BARE)
+                .register("dejar", BinaryProtocol.LEAVE, BARE)
+                .register("historial", BinaryProtocol.HISTORY, BARE | ARG)
+                .register("estadisticas", BinaryProtocol.STATS, BARE)
+                .register("unirse", BinaryProtocol.JOIN, ARG);
+    }
+
+    // Agregar un comando (nombre en letras ASCII, sin la barra). Registrar antes de compartir la tabla entre hilos.
+    CommandTable register(String name, byte type, int flags) {
+        byte[] bytes = name.toLowerCase().getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length == 0 || bytes.length > MAX_NAME) throw new IllegalArgumentException("Nombre de comando inválido: " + name);
+        Entry[] bucket = byLength[bytes.length];
+        Entry[] grown = new Entry[bucket == null ? 1 : bucket.length + 1];
+        if (bucket != null) System.arraycopy(bucket, 0, grown, 0, bucket.length);
+        grown[grown.length - 1] = new Entry(bytes, type, flags);
+        byLength[bytes.length] = grown;
+        if ((flags & ARG) != 0) takesArg[type & 0xff] = true;
+        return this;
+    }
+
+    // ---------------- RECONOCER ----------------
+
+    // Tipo de la línea data[start, end), ya recortada: un comando registrado o MESSAGE
+    byte typeOf(byte[] data, int start, int end) {
+        if (start >= end) return BinaryProtocol.MESSAGE;
+        boolean slash = data[start] == '/';
+        int word = slash ? start + 1 : start;
+        int wordEnd = word;
+        while (wordEnd < end && data[wordEnd] != ' ') wordEnd++;
+        int length = wordEnd - word;
+        if (length == 0 || length > MAX_NAME || byLength[length] == null) return BinaryProtocol.MESSAGE;
+        boolean hasArg = wordEnd < end;
+        for (Entry e : byLength[length]) {
+            if (!matches(e.name, data, word)) continue;
+            if (!slash && ((e.flags & BARE) == 0 || hasArg)) return BinaryProtocol.MESSAGE;
+            if (hasArg && (e.flags & ARG) == 0) return BinaryProtocol.MESSAGE;
+            return e.type;
+        }
+        return BinaryProtocol.MESSAGE;
+    }
+
+    // Argumento de la línea para su tipo: la línea entera si es un mensaje, lo que sigue al
+    // comando si lleva argumento, "" si no (sin decodificar nada)
+    String argOf(byte type, byte[] data, int start, int end) {
+        if (type == BinaryProtocol.MESSAGE) return text(data, start, end);
+        if (!takesArg[type & 0xff]) return "";
+        int arg = start;
+        while (arg < end && data[arg] != ' ') arg++;
+        return text(data, trimStart(data, arg, end), end);
+    }
+
+    // true si el tipo lleva argumento (en binario, los datos del frame)
+    boolean takesArg(byte type) {
+        return takesArg[type & 0xff];
+    }
+
+    private static boolean matches(byte[] name, byte[] data, int offset) {
+        for (int i = 0; i < name.length; i++) {
+            if ((data[offset + i] | 0x20) != name[i]) return false;   // Letras ASCII sin importar mayúsculas
+        }
+        return true;
+    }
+
+    // ---------------- BYTES ----------------
+
+    // Primer byte que no es espacio ni control (como String.trim(); los bytes de UTF-8 multibyte no cuentan)
+    static int trimStart(byte[] data, int start, int end) {
+        while (start < end && (data[start] & 0xff) <= ' ') start++;
+        return start;
+    }
+
+    // Fin de la línea sin los espacios ni controles del final
+    static int trimEnd(byte[] data, int start, int end) {
+        while (end > start && (data[end - 1] & 0xff) <= ' ') end--;
+        return end;
+    }
+
+    static String text(byte[] data, int start, int end) {
+        return start >= end ? "" : new String(data, start, end - start, StandardCharsets.UTF_8);
+    }
+}
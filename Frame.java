@@ -0,0 +1,64 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// --------------------- MENSAJE YA CODIFICADO ---------------------
+// Una línea del protocolo (UTF-8 + '\n') codificada una sola vez y compartida, en un
+// ByteBuffer de solo lectura, por todos los destinatarios de un broadcast. Los clientes del
+// protocolo binario reciben binary(), que también se codifica una sola vez; los clientes UDP
+// fiables, datagram().
+final class Frame {
+    private final ByteBuffer data;
+    private volatile Frame binary;      // Codificación binaria, si algún destinatario la pidió
+    private volatile byte[] datagram;   // La línea sin '\n' para la entrega fiable de UDP
+
+    private Frame(ByteBuffer data) {
+        this.data = data;
+    }
+
+    // Codificar una línea de texto del protocolo
+    static Frame of(String line) {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        return new Frame(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+    }
+
+    // Bytes ya codificados, sin copiarlos: una línea con su '\n' (por ejemplo una vista del
+    // historial mapeado) o un frame de control del protocolo binario
+    static Frame wrap(ByteBuffer line) {
+        return new Frame(line.asReadOnlyBuffer());
+    }
+
+    // La misma línea como frame TEXT del protocolo binario. Se arma la primera vez que hace
+    // falta y la comparten todos los destinatarios binarios de un broadcast.
+    Frame binary() {
+        Frame b = binary;
+        if (b == null) {
+            ByteBuffer line = data.duplicate();
+            byte[] bytes = new byte[line.remaining() - 1];   // Sin el '\n'
+            line.get(bytes);
+            binary = b = new Frame(BinaryProtocol.encode(BinaryProtocol.TEXT, bytes, 0, -1).asReadOnlyBuffer());
+        }
+        return b;
+    }
+
+    // La línea sin el '\n', como la numera ReliableEndpoint. Se copia una sola vez y la
+    // comparten todas las sesiones fiables del broadcast (no la modifican).
+    byte[] datagram() {
+        byte[] d = datagram;
+        if (d == null) {
+            ByteBuffer line = data.duplicate();
+            d = new byte[line.remaining() - 1];
+            line.get(d);
+            datagram = d;
+        }
+        return d;
+    }
+
+    int size() {
+        return data.remaining();
+    }
+
+    // Vista propia para un destinatario: comparte los bytes, solo copia la posición
+    ByteBuffer buffer() {
+        return data.duplicate();
+    }
+}
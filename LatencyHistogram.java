@@ -0,0 +1,58 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// --------------------- HISTOGRAMA DE LATENCIAS ---------------------
+// Histograma log-lineal (la idea de HdrHistogram, en mínimo): cada potencia de 2 se divide
+// en 16 sub-buckets, así que cualquier percentil tiene menos de 6,25% de error relativo y el
+// histograma ocupa siempre lo mismo (1024 contadores) sin importar cuántos valores registre.
+final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 << SUB_BITS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // Registrar un valor (negativos cuentan como 0). Seguro desde varios hilos.
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(indexOf(value));
+        total.incrementAndGet();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    // Valor por debajo del cual cae la fracción p (0..1) de las muestras
+    long percentile(double p) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValueAt(i), max.get());
+        }
+        return max.get();
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exp - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_COUNT - 1));
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_COUNT) return index;
+        int shift = (index >> SUB_BITS) - 1;
+        long lowest = (long) (SUB_COUNT + (index & (SUB_COUNT - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
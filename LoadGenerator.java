@@ -0,0 +1,336 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// --------------------- GENERADOR DE CARGA ---------------------
+// Simula N usuarios sin interfaz contra Server (TCP, puerto 5000) o ServerUDP (UDP, puerto 5001).
+// Cada usuario hace login, envía mensajes a una tasa fija con la marca de tiempo de envío y
+// mide cuánto tarda en recibir los mensajes de los demás (latencia de fan-out de punta a punta).
+// Todo corre en el mismo proceso y por loopback, así que System.nanoTime() sirve de reloj común.
+public class LoadGenerator {
+    private static final String TAG = "LG";   // Marca de los mensajes generados: "LG <nanos> <relleno>"
+
+    private final String protocol;     // "tcp" o "udp"
+    private final String host;
+    private final int port;
+    private final int users;           // Usuarios simulados
+    private final double rate;         // Mensajes por segundo de cada usuario
+    private final int seconds;         // Duración de la fase de envío
+    private final int size;            // Tamaño aproximado de cada mensaje en bytes
+    private final String label;        // Texto libre para identificar la corrida (modo del servidor, etc.)
+    private final String output;       // Archivo CSV donde se agregan los resultados
+    private final ReliableEndpoint.Config reliable; // Entrega fiable en UDP (--fiable); null = datagramas sueltos
+    private final boolean binary;      // TCP con el protocolo binario (--binario)
+
+    private final LatencyHistogram latency = new LatencyHistogram(); // Microsegundos
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retransmitted = new AtomicLong();   // Reenvíos de los usuarios con --fiable
+    private final long startedAt = System.nanoTime();
+
+    LoadGenerator(Options opts) {
+        this.protocol = opts.get("protocolo", "tcp");
+        this.host = opts.get("host", "127.0.0.1");
+        this.port = opts.getInt("puerto", protocol.equals("udp") ? 5001 : 5000);
+        this.users = opts.getInt("usuarios", 100);
+        this.rate = opts.getDouble("tasa", 1.0);
+        this.seconds = opts.getInt("duracion", 10);
+        this.size = opts.getInt("tamano", 64);
+        this.label = opts.get("etiqueta", "-");
+        this.output = opts.get("salida", "loadgen-resultados.csv");
+        this.reliable = opts.getBoolean("fiable", false) ? ReliableEndpoint.Config.from(opts) : null;
+        this.binary = opts.getBoolean("binario", false);
+    }
+
+    // Uso: java LoadGenerator [--protocolo=tcp|udp] [--host=IP] [--puerto=N] [--usuarios=N]
+    //                         [--tasa=msg/s por usuario] [--duracion=s] [--tamano=bytes]
+    //                         [--etiqueta=texto] [--salida=archivo.csv]
+    //                         [--fiable] [--perdida=0..1] [--ventana=N] [--mtu=N] (UDP con entrega fiable y pérdida simulada)
+    //                         [--binario] (TCP con el protocolo binario)
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(new Options(args)).run();
+    }
+
+    void run() throws Exception {
+        System.out.println("[CARGA] " + users + " usuarios " + protocol.toUpperCase() + (reliable != null ? " fiable" : "") + (binary ? " binario" : "")
+                + " contra " + host + ":" + port + ", " + rate + " msg/s cada uno durante " + seconds + " s");
+        List<SimUser> connected = new CopyOnWriteArrayList<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            // ---------------- FASE 1: CONEXIÓN Y LOGIN ----------------
+            CountDownLatch loggedIn = new CountDownLatch(users);
+            long connectStart = System.nanoTime();
+            for (int i = 0; i < users; i++) {
+                String name = "lg-" + i;
+                executor.execute(() -> {
+                    SimUser user = null;
+                    try {
+                        user = protocol.equals("udp") ? new UdpUser() : new TcpUser();
+                        user.login(name);
+                        connected.add(user);
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        if (user != null) user.close();
+                        user = null;
+                    } finally {
+                        loggedIn.countDown();
+                    }
+                    if (user != null) user.readLoop();   // El hilo queda leyendo hasta el cierre
+                });
+            }
+            loggedIn.await();
+            long connectNanos = System.nanoTime() - connectStart;
+            System.out.printf(Locale.ROOT, "[CARGA] %d conectados (%d fallidos) en %.1f ms%n",
+                    connected.size(), failed.get(), connectNanos / 1e6);
+
+            // ---------------- FASE 2: ENVÍO A TASA FIJA ----------------
+            long sendStart = System.nanoTime();
+            long sendEnd = sendStart + TimeUnit.SECONDS.toNanos(seconds);
+            List<Future<?>> senders = new ArrayList<>();
+            for (SimUser user : connected) {
+                senders.add(executor.submit(() -> sendLoop(user, sendEnd)));
+            }
+            for (Future<?> f : senders) f.get();
+
+            // Dar tiempo a que lleguen los últimos mensajes en vuelo
+            Thread.sleep(2000);
+            for (SimUser user : connected) user.close();
+
+            report(connected.size(), connectNanos, System.nanoTime() - sendStart);
+        }
+    }
+
+    // Enviar a intervalos regulares, con un desfase al azar para no sincronizar a todos
+    private void sendLoop(SimUser user, long endNanos) {
+        long interval = (long) (1_000_000_000L / rate);
+        long next = System.nanoTime() + ThreadLocalRandom.current().nextLong(Math.max(1, interval));
+        String padding = "x".repeat(Math.max(0, size - 24));
+        try {
+            while (next < endNanos) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+                user.send(TAG + " " + System.nanoTime() + " " + padding);
+                sent.incrementAndGet();
+                next += interval;
+            }
+        } catch (IOException e) {
+            failed.incrementAndGet();
+        }
+    }
+
+    // Procesar una línea recibida: si es un mensaje generado, medir su latencia
+    private void onLine(String line) {
+        int idx = line.indexOf("] " + TAG + " ");
+        if (idx < 0) return;
+        int start = idx + TAG.length() + 3;
+        int end = line.indexOf(' ', start);
+        try {
+            long sentAt = Long.parseLong(end < 0 ? line.substring(start) : line.substring(start, end));
+            if (sentAt < startedAt) return;   // De una corrida anterior: el servidor lo repite del historial al entrar
+            latency.record((System.nanoTime() - sentAt) / 1000);
+            received.incrementAndGet();
+        } catch (NumberFormatException ignored) {
+        }
+    }
+
+    // ---------------- RESULTADOS ----------------
+    private void report(int connectedUsers, long connectNanos, long elapsedNanos) throws IOException {
+        double connectMs = connectNanos / 1e6;
+        double connectRate = connectedUsers / (connectNanos / 1e9);
+        double elapsedS = elapsedNanos / 1e9;
+        long expected = sent.get() * Math.max(0, connectedUsers - 1);  // Sala única: cada mensaje va a N-1
+        double delivery = expected == 0 ? 0 : 100.0 * received.get() / expected;
+
+        System.out.println("[CARGA] ---------------- RESULTADOS ----------------");
+        System.out.printf(Locale.ROOT, "[CARGA] Conexión: %.1f ms (%.0f conexiones/s)%n", connectMs, connectRate);
+        System.out.printf(Locale.ROOT, "[CARGA] Enviados: %d (%.0f msg/s)%n", sent.get(), sent.get() / (double) seconds);
+        System.out.printf(Locale.ROOT, "[CARGA] Recibidos: %d (%.0f msg/s, %.2f%% de %d esperados)%n",
+                received.get(), received.get() / elapsedS, delivery, expected);
+        System.out.printf(Locale.ROOT, "[CARGA] Latencia fan-out (us): p50=%d p99=%d p999=%d max=%d%n",
+                latency.percentile(0.50), latency.percentile(0.99), latency.percentile(0.999), latency.max());
+        if (reliable != null) System.out.println("[CARGA] Retransmisiones de los clientes: " + retransmitted.get());
+
+        File file = new File(output);
+        boolean header = !file.exists() || file.length() == 0;
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, StandardCharsets.UTF_8, true))) {
+            if (header) {
+                out.println("fecha,protocolo,etiqueta,usuarios,conectados,fallidos,tasa,duracion_s,tamano,"
+                        + "conexion_ms,conexiones_s,enviados,recibidos,entrega_pct,recibidos_s,p50_us,p99_us,p999_us,max_us");
+            }
+            out.printf(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%.2f,%d,%d,%.1f,%.0f,%d,%d,%.2f,%.0f,%d,%d,%d,%d%n",
+                    LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME), protocol, label,
+                    users, connectedUsers, failed.get(), rate, seconds, size, connectMs, connectRate,
+                    sent.get(), received.get(), delivery, received.get() / elapsedS,
+                    latency.percentile(0.50), latency.percentile(0.99), latency.percentile(0.999), latency.max());
+        }
+        System.out.println("[CARGA] Resultados agregados a " + file.getPath());
+    }
+
+    // --------------------- USUARIOS SIMULADOS ---------------------
+    private interface SimUser {
+        void login(String name) throws IOException;
+        void send(String line) throws IOException;
+        void readLoop();
+        void close();
+    }
+
+    // Usuario TCP: mismo protocolo de líneas que Client
+    private final class TcpUser implements SimUser {
+        private final Socket socket;
+        private final BufferedReader in;             // Protocolo de texto
+        private final DataInputStream frames;        // Protocolo binario (--binario)
+        private final OutputStream out;
+
+        TcpUser() throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            if (binary) {
+                in = null;
+                frames = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out.write(BinaryProtocol.HANDSHAKE);
+            } else {
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                frames = null;
+            }
+        }
+
+        public void login(String name) throws IOException {
+            if (!binary) {
+                if (in.readLine() == null) throw new IOException("Sin bienvenida");
+                send(name);
+            } else {
+                int b;
+                while ((b = frames.read()) != '\n') {    // La bienvenida llega en texto, antes del saludo
+                    if (b < 0) throw new IOException("Sin bienvenida");
+                }
+                out.write(BinaryProtocol.encode(BinaryProtocol.LOGIN, name).array());
+            }
+            String line;
+            while ((line = next()) != null) {
+                if (line.startsWith("[SERVIDOR] Conectado como")) return;
+            }
+            throw new IOException("Conexión cerrada durante el login");
+        }
+
+        public void send(String line) throws IOException {
+            if (!binary) {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            } else {
+                byte type = BinaryProtocol.typeOf(line);
+                out.write(BinaryProtocol.encode(type, BinaryProtocol.argOf(type, line)).array());
+            }
+        }
+
+        public void readLoop() {
+            try {
+                String line;
+                while ((line = next()) != null) onLine(line);
+            } catch (IOException ignored) {
+            }
+        }
+
+        // Siguiente línea del servidor, en cualquiera de los dos protocolos; null al cerrarse
+        private String next() throws IOException {
+            if (!binary) return in.readLine();
+            BinaryProtocol.Message message;
+            while ((message = BinaryProtocol.read(frames)) != null) {
+                if (message.type == BinaryProtocol.TEXT) return message.text();
+            }
+            return null;
+        }
+
+        public void close() {
+            try { send("/quitar"); } catch (IOException ignored) {}
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    // Usuario UDP: mismo protocolo de datagramas que ClientUDP (con --fiable, el de ClientUDP --fiable)
+    private final class UdpUser implements SimUser {
+        private final DatagramChannel channel;
+        private final DatagramSocket socket;       // Vista de socket del canal, para recibir con timeout
+        private final SocketAddress server;
+        private final ReliableEndpoint endpoint;   // null sin --fiable
+        private volatile boolean welcomed;
+
+        UdpUser() throws IOException {
+            server = new InetSocketAddress(host, port);
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 1024 * 1024); // Cada usuario recibe el fan-out de todos
+            channel.connect(server);
+            socket = channel.socket();
+            endpoint = reliable == null ? null : new ReliableEndpoint(channel, reliable, new ReliableEndpoint.Listener() {
+                public void deliver(SocketAddress from, ByteBuffer message) {
+                    onMessage(StandardCharsets.UTF_8.decode(message).toString());
+                }
+
+                public void lost(SocketAddress peer) {
+                    failed.incrementAndGet();
+                }
+            });
+        }
+
+        public void login(String name) throws IOException {
+            send(name);   // Con --fiable se retransmite solo si se pierde
+            socket.setSoTimeout(5000);
+            DatagramPacket packet = new DatagramPacket(new byte[65507], 65507);
+            while (!welcomed) receive(packet);   // SocketTimeoutException si el servidor no contesta
+            socket.setSoTimeout(0);
+        }
+
+        public void send(String line) throws IOException {
+            byte[] data = line.getBytes(StandardCharsets.UTF_8);
+            if (endpoint != null) {
+                endpoint.send(server, data);
+            } else {
+                channel.write(ByteBuffer.wrap(data));
+            }
+        }
+
+        public void readLoop() {
+            DatagramPacket packet = new DatagramPacket(new byte[65507], 65507);
+            while (channel.isOpen()) {
+                try {
+                    receive(packet);
+                } catch (IOException e) {
+                    break;
+                }
+            }
+        }
+
+        private void receive(DatagramPacket packet) throws IOException {
+            packet.setLength(packet.getData().length);
+            socket.receive(packet);
+            ByteBuffer data = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+            if (endpoint == null || !endpoint.receive(server, data)) {
+                onMessage(StandardCharsets.UTF_8.decode(data).toString());
+            }
+        }
+
+        private void onMessage(String msg) {
+            if (msg.startsWith("[SERVIDOR] Conectado como")) welcomed = true;
+            else onLine(msg);
+        }
+
+        public void close() {
+            try { send("/quitar"); } catch (IOException ignored) {}
+            if (endpoint != null) {
+                endpoint.shutdown();
+                retransmitted.addAndGet(endpoint.retransmissions());
+            }
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// --------------------- LOG ASÍNCRONO DEL SERVIDOR ---------------------
+// Los hilos que atienden clientes no escriben en la consola: solo dejan el evento (plantilla y
+// argumentos, sin formatear) en un anillo sin locks y siguen. Un único hilo escritor lo vacía
+// hacia la consola o hacia un archivo que rota por tamaño. Un nivel apagado cuesta una
+// comparación: la plantilla no se arma ni se encola. Si el anillo se llena el evento se
+// descarta y se cuenta; el escritor avisa cuántos se perdieron.
+//
+// Uso: Log.debug("Recibido de {}: '{}'", usuario, linea);  // {} se reemplaza por cada argumento
+final class Log {
+
+    enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    // Un evento pendiente de escribir; se formatea en el hilo escritor
+    private static final class Event {
+        final long millis;
+        final Level level;
+        final String template;
+        final Object a;
+        final Object b;
+
+        Event(Level level, String template, Object a, Object b) {
+            this.millis = System.currentTimeMillis();
+            this.level = level;
+            this.template = template;
+            this.a = a;
+            this.b = b;
+        }
+    }
+
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1); // Espera del escritor sin eventos
+    private static final long DROP_REPORT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static volatile Level level = Level.INFO;      // DEBUG apagado por defecto
+    private static volatile MpscRing<Event> ring = new MpscRing<>(8192);
+    private static volatile Sink sink = new ConsoleSink();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static long lastReportedDrops;                 // Descartes ya avisados (solo en drain())
+    private static long lastDropReport = System.nanoTime() - DROP_REPORT_NANOS; // Último aviso de descartes
+    private static volatile Thread writer;
+
+    private Log() {}
+
+    // --log-nivel=debug|info|warn|error|off --log-archivo=ruta --log-max-mb=N --log-archivos=N --log-buffer=N
+    // Sin --log-archivo se escribe en la consola. Llamar antes de arrancar el servidor.
+    static void configure(Options opts) {
+        level = Level.valueOf(opts.get("log-nivel", "info").toUpperCase());
+        ring = new MpscRing<>(opts.getInt("log-buffer", 8192));
+        String file = opts.get("log-archivo", null);
+        if (file != null) {
+            sink = new RollingFileSink(Paths.get(file),
+                    opts.getInt("log-max-mb", 10) * 1024L * 1024L, opts.getInt("log-archivos", 5));
+        }
+    }
+
+    static boolean isEnabled(Level l) {
+        return l.compareTo(level) >= 0;
+    }
+
+    static void setLevel(Level l) {
+        level = l;
+    }
+
+    // Eventos descartados desde el arranque porque el anillo estaba lleno
+    static long dropped() {
+        return dropped.get();
+    }
+
+    static void debug(String msg) { log(Level.DEBUG, msg, null, null); }
+    static void debug(String msg, Object a) { log(Level.DEBUG, msg, a, null); }
+    static void debug(String msg, Object a, Object b) { log(Level.DEBUG, msg, a, b); }
+    static void info(String msg) { log(Level.INFO, msg, null, null); }
+    static void info(String msg, Object a) { log(Level.INFO, msg, a, null); }
+    static void info(String msg, Object a, Object b) { log(Level.INFO, msg, a, b); }
+    static void warn(String msg) { log(Level.WARN, msg, null, null); }
+    static void warn(String msg, Object a) { log(Level.WARN, msg, a, null); }
+    static void warn(String msg, Object a, Object b) { log(Level.WARN, msg, a, b); }
+    static void error(String msg) { log(Level.ERROR, msg, null, null); }
+    static void error(String msg, Object a) { log(Level.ERROR, msg, a, null); }
+    static void error(String msg, Object a, Object b) { log(Level.ERROR, msg, a, b); }
+
+    private static void log(Level l, String template, Object a, Object b) {
+        if (l.compareTo(level) < 0) return;
+        if (writer == null) startWriter();
+        if (!ring.offer(new Event(l, template, a, b))) dropped.incrementAndGet();
+    }
+
+    // ---------------- HILO ESCRITOR ----------------
+    private static synchronized void startWriter() {
+        if (writer != null) return;
+        Thread t = new Thread(Log::writeLoop, "log-escritor");
+        t.setDaemon(true);
+        writer = t;
+        t.start();
+        // Al salir, escribir lo que quedó en el anillo
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "log-cierre"));
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            if (!drain()) LockSupport.parkNanos(IDLE_NANOS);
+        }
+    }
+
+    // Escribir todo lo pendiente; false si no había nada. Solo la llaman el escritor y el cierre.
+    private static synchronized boolean drain() {
+        MpscRing<Event> r = ring;
+        Sink s = sink;
+        boolean wrote = false;
+        try {
+            Event e;
+            while ((e = r.poll()) != null) {
+                s.write(format(e));
+                wrote = true;
+            }
+            // Aviso de descartes: como máximo uno por segundo para no sumar carga a un log saturado
+            long lost = dropped.get();
+            long now = System.nanoTime();
+            if (lost != lastReportedDrops && now - lastDropReport >= DROP_REPORT_NANOS) {
+                s.write(TIME.format(Instant.now()) + " WARN  [LOG] " + (lost - lastReportedDrops)
+                        + " eventos descartados (buffer lleno), " + lost + " en total");
+                lastReportedDrops = lost;
+                lastDropReport = now;
+                wrote = true;
+            }
+            if (wrote) s.flush();
+        } catch (IOException ex) {
+            // Sin log no hay a quién avisar; se sigue para no frenar al servidor
+        }
+        return wrote;
+    }
+
+    private static String format(Event e) {
+        StringBuilder sb = new StringBuilder(e.template.length() + 48);
+        sb.append(TIME.format(Instant.ofEpochMilli(e.millis))).append(' ');
+        sb.append(e.level.name());
+        for (int i = e.level.name().length(); i < 6; i++) sb.append(' ');
+        int from = 0;
+        int arg = 0;
+        int idx;
+        while (arg < 2 && (idx = e.template.indexOf("{}", from)) >= 0) {
+            sb.append(e.template, from, idx).append(arg == 0 ? e.a : e.b);
+            from = idx + 2;
+            arg++;
+        }
+        return sb.append(e.template, from, e.template.length()).toString();
+    }
+
+    // ---------------- SALIDAS ----------------
+    private interface Sink {
+        void write(String line) throws IOException;
+        void flush() throws IOException;
+    }
+
+    // Consola: el escritor es el único hilo que toca System.out y lo hace una vez por tanda
+    private static final class ConsoleSink implements Sink {
+        private final StringBuilder pending = new StringBuilder();
+
+        public void write(String line) {
+            pending.append(line).append(System.lineSeparator());
+        }
+
+        public void flush() {
+            System.out.print(pending);
+            System.out.flush();
+            pending.setLength(0);
+        }
+    }
+
+    // Archivo que rota al pasar maxBytes: log -> log.1 -> log.2 ... hasta keep archivos viejos
+    private static final class RollingFileSink implements Sink {
+        private final Path path;
+        private final long maxBytes;
+        private final int keep;
+        private Writer out;
+        private long size;
+
+        RollingFileSink(Path path, long maxBytes, int keep) {
+            this.path = path;
+            this.maxBytes = maxBytes;
+            this.keep = keep;
+        }
+
+        public void write(String line) throws IOException {
+            if (out == null) open();
+            if (size >= maxBytes) roll();
+            out.write(line);
+            out.write('\n');
+            size += line.length() + 1;   // Aproximado: caracteres, no bytes UTF-8
+        }
+
+        public void flush() throws IOException {
+            if (out != null) out.flush();
+        }
+
+        private void open() throws IOException {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            size = Files.exists(path) ? Files.size(path) : 0;
+            out = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+                    StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        private void roll() throws IOException {
+            out.close();
+            for (int i = keep - 1; i >= 1; i--) {
+                Path older = rolled(i);
+                if (Files.exists(older)) Files.move(older, rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (keep > 0) Files.move(path, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+            else Files.delete(path);
+            open();
+        }
+
+        private Path rolled(int n) {
+            return path.resolveSibling(path.getFileName() + "." + n);
+        }
+    }
+}
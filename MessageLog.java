@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+// --------------------- HISTORIAL DE MENSAJES EN DISCO ---------------------
+// Registro de solo agregado de los mensajes de chat, en segmentos de tamaño fijo mapeados en
+// memoria (historial/00000000000000000000.log, el nombre es el número del primer mensaje).
+// Cada mensaje tiene un número (offset) que crece sin huecos; un índice disperso guarda la
+// posición de uno de cada INDEX_INTERVAL mensajes de cada segmento, y para llegar a otro se
+// avanza desde la entrada anterior del índice (a lo sumo INDEX_INTERVAL - 1 registros).
+//
+// Quien hace broadcast solo deja la línea en un anillo sin locks (como Log) y sigue; un hilo
+// escritor la copia al segmento. Para repetir lo último de una sala se guardan en memoria los
+// offsets de sus mensajes recientes y se devuelven vistas de solo lectura sobre las páginas
+// mapeadas: el historial no se copia al heap, el socket lo escribe directo desde el archivo.
+//
+// Registro (big-endian): largo(int) largo-sala(byte) sala línea (UTF-8, con '\n'). Un largo 0
+// marca el final de lo escrito en el segmento: cada registro escribe el 0 que lo sigue antes
+// de publicar su largo, porque después de una caída ahí puede quedar basura de uno a medias.
+final class MessageLog {
+    static final int MAX_RECENT = 100;                 // Mensajes recientes que se recuerdan por sala
+    private static final int INDEX_INTERVAL = 64;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Línea pendiente de escribir
+    private static final class Entry {
+        final String room;
+        final Frame line;
+
+        Entry(String room, Frame line) {
+            this.room = room;
+            this.line = line;
+        }
+    }
+
+    // Un archivo mapeado con su índice disperso: positions[k] = posición del mensaje base + k * INDEX_INTERVAL.
+    // Todo se toca con el lock del MessageLog (lo toma el escritor por registro y recent() para leer).
+    private static final class Segment {
+        final long base;
+        final Path path;
+        final MappedByteBuffer data;
+        int[] positions = new int[16];
+        int indexed;                                   // Entradas usadas de positions
+        int end;                                       // Próxima posición libre
+        long count;                                    // Mensajes en el segmento
+
+        Segment(long base, Path path, MappedByteBuffer data) {
+            this.base = base;
+            this.path = path;
+            this.data = data;
+        }
+    }
+
+    // Offsets recientes de una sala (anillo de MAX_RECENT)
+    private static final class Recent {
+        private final long[] offsets = new long[MAX_RECENT];
+        private long total;
+
+        synchronized void add(long offset) {
+            offsets[(int) (total++ % MAX_RECENT)] = offset;
+        }
+
+        synchronized long[] last(int n) {
+            int k = (int) Math.min(Math.min(n, MAX_RECENT), total);
+            long[] out = new long[k];
+            for (int i = 0; i < k; i++) out[i] = offsets[(int) ((total - k + i) % MAX_RECENT)];
+            return out;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int keepSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();   // Del más viejo al actual (con el lock)
+    private final ConcurrentHashMap<String, Recent> recent = new ConcurrentHashMap<>();
+    private final MpscRing<Entry> ring;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object drainer = new Object();       // Un solo consumidor del anillo (escritor o cierre)
+    private long nextOffset;                           // Con el lock
+
+    // --historial=dir --historial-mb=N --historial-segmentos=N --historial-buffer=N; null con --sin-historial
+    static MessageLog open(Options opts, String defaultDir) throws IOException {
+        if (opts.getBoolean("sin-historial", false)) return null;
+        return new MessageLog(Paths.get(opts.get("historial", defaultDir)),
+                opts.getInt("historial-mb", 16) * 1024 * 1024,
+                opts.getInt("historial-segmentos", 8),
+                opts.getInt("historial-buffer", 8192));
+    }
+
+    MessageLog(Path dir, int segmentBytes, int keepSegments, int bufferSize) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = Math.max(64 * 1024, segmentBytes);
+        this.keepSegments = Math.max(1, keepSegments);
+        this.ring = new MpscRing<>(bufferSize);
+        Files.createDirectories(dir);
+        recover();
+        Thread writer = new Thread(this::writeLoop, "historial-escritor");
+        writer.setDaemon(true);
+        writer.start();
+        // Al salir, escribir lo que quedó en el anillo y bajar las páginas al disco
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "historial-cierre"));
+    }
+
+    // Guardar una línea de la sala; false si el escritor no da abasto y se descartó
+    boolean append(String room, Frame line) {
+        if (ring.offer(new Entry(room, line))) return true;
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    // Cantidad pedida en "/historial N": sin número, 20; -1 si no es válida
+    static int parseCount(String arg) {
+        if (arg.isEmpty()) return 20;
+        try {
+            int n = Integer.parseInt(arg);
+            return n >= 1 && n <= MAX_RECENT ? n : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Líneas descartadas porque el anillo estaba lleno
+    long dropped() {
+        return dropped.get();
+    }
+
+    // Los últimos n mensajes de la sala (a lo sumo MAX_RECENT), del más viejo al más nuevo.
+    // Cada uno es una vista de solo lectura de la línea en el archivo mapeado, con su '\n'.
+    List<ByteBuffer> recent(String room, int n) {
+        Recent r = recent.get(room);
+        if (r == null || n <= 0) return List.of();
+        List<ByteBuffer> lines = new ArrayList<>();
+        synchronized (this) {
+            for (long offset : r.last(n)) {
+                ByteBuffer line = read(offset);
+                if (line != null) lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    // ---------------- LECTURA ----------------
+
+    // Ubicar un mensaje con el índice disperso (con el lock); null si su segmento ya se borró
+    private ByteBuffer read(long offset) {
+        Segment segment = null;
+        for (Segment s : segments) {
+            if (s.base > offset) break;
+            segment = s;
+        }
+        if (segment == null) return null;
+        long rel = offset - segment.base;
+        int entry = (int) (rel / INDEX_INTERVAL);
+        if (entry >= segment.indexed) return null;
+        ByteBuffer data = segment.data.duplicate();
+        int pos = segment.positions[entry];
+        for (long i = (long) entry * INDEX_INTERVAL; i < rel; i++) pos += 4 + data.getInt(pos);
+        int length = data.getInt(pos);
+        int roomLength = data.get(pos + 4) & 0xff;
+        int lineStart = pos + 5 + roomLength;
+        return data.slice(lineStart, length - 1 - roomLength).asReadOnlyBuffer();
+    }
+
+    // ---------------- ESCRITURA ----------------
+
+    private void writeLoop() {
+        while (true) {
+            if (!drain()) LockSupport.parkNanos(IDLE_NANOS);
+        }
+    }
+
+    // Copiar al segmento todo lo pendiente; false si no había nada. El lock del MessageLog se
+    // toma por registro y el force() de un segmento lleno se hace afuera: recent(), que corre en
+    // el motor del chat, nunca espera una tanda entera ni una bajada al disco.
+    private boolean drain() {
+        synchronized (drainer) {
+            boolean wrote = false;
+            Entry e;
+            while ((e = ring.poll()) != null) {
+                try {
+                    MappedByteBuffer closed;
+                    synchronized (this) {
+                        closed = write(e.room, e.line.buffer());
+                    }
+                    if (closed != null) closed.force();
+                    wrote = true;
+                } catch (IOException ex) {
+                    Log.warn("[HISTORIAL] No se pudo escribir: {}", ex.getMessage());
+                }
+            }
+            return wrote;
+        }
+    }
+
+    private void flush() {
+        drain();
+        synchronized (this) {
+            Segment current = segments.peekLast();
+            if (current != null) current.data.force();
+        }
+    }
+
+    // Agregar un registro (con el lock). Si hubo que abrir un segmento nuevo, devuelve el que
+    // se llenó para bajarlo al disco fuera del lock; si no, null.
+    private MappedByteBuffer write(String room, ByteBuffer line) throws IOException {
+        byte[] roomBytes = room.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + roomBytes.length + line.remaining();
+        // Más grande que un segmento: no se guarda (antes de abrir uno nuevo, que no serviría
+        // y haría borrar el más viejo)
+        if (4 + length + 4 > segmentBytes) return null;
+        Segment current = segments.peekLast();
+        MappedByteBuffer closed = null;
+        // Siempre queda lugar para el 0 que marca el final
+        if (current == null || current.end + 4 + length + 4 > segmentBytes) {
+            if (current != null) closed = current.data;
+            current = roll();
+        }
+        ByteBuffer data = current.data;
+        int pos = current.end;
+        data.position(pos + 4);
+        data.put((byte) roomBytes.length).put(roomBytes).put(line);
+        data.putInt(pos + 4 + length, 0);              // El fin, por si quedó basura de antes de una caída
+        data.putInt(pos, length);                      // El largo al final: un registro a medias sigue marcando el fin
+        current.end = pos + 4 + length;
+        index(current, pos);
+        recent.computeIfAbsent(room, k -> new Recent()).add(nextOffset++);
+        return closed;
+    }
+
+    private static void index(Segment s, int pos) {
+        if (s.count++ % INDEX_INTERVAL != 0) return;
+        if (s.indexed == s.positions.length) s.positions = Arrays.copyOf(s.positions, s.positions.length * 2);
+        s.positions[s.indexed++] = pos;
+    }
+
+    // Abrir un segmento nuevo y borrar los más viejos que sobran
+    private Segment roll() throws IOException {
+        Segment s = map(nextOffset);
+        segments.addLast(s);
+        while (segments.size() > keepSegments) {
+            Files.deleteIfExists(segments.pollFirst().path);   // Las vistas ya entregadas siguen siendo válidas
+        }
+        return s;
+    }
+
+    private Segment map(long base) throws IOException {
+        Path path = dir.resolve(String.format("%020d.log", base));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Segment(base, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+    }
+
+    // ---------------- ARRANQUE ----------------
+    // Recorrer los segmentos que quedaron en disco para rearmar el índice, los offsets
+    // recientes de cada sala y dónde seguir escribiendo
+    private synchronized void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().matches("\\d{20}\\.log")).sorted().toList();
+        }
+        for (Path file : files) {
+            long base = Long.parseLong(file.getFileName().toString().substring(0, 20));
+            if (base < nextOffset) continue;           // Solapado con el anterior: archivo ajeno
+            nextOffset = base;
+            Segment s = map(base);
+            ByteBuffer data = s.data;
+            int pos = 0;
+            int length;
+            while (pos + 4 <= segmentBytes && (length = data.getInt(pos)) > 0 && pos + 4 + length <= segmentBytes) {
+                int roomLength = data.get(pos + 4) & 0xff;
+                String room = StandardCharsets.UTF_8.decode(data.slice(pos + 5, roomLength)).toString();
+                index(s, pos);
+                recent.computeIfAbsent(room, k -> new Recent()).add(nextOffset++);
+                pos += 4 + length;
+            }
+            s.end = pos;
+            segments.addLast(s);
+        }
+        while (segments.size() > keepSegments) Files.deleteIfExists(segments.pollFirst().path);
+        if (nextOffset > 0) Log.info("[HISTORIAL] {} mensajes recuperados de {}", nextOffset, dir);
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// --------------------- MÉTRICAS DEL SERVIDOR ---------------------
+// Contadores, histograma de fan-out y medidores de un servidor (Server o ServerUDP), siempre
+// encendidos. Registrar cuesta un LongAdder.increment(): cada hilo suma en su propia celda, sin
+// competir por una variable compartida. Los medidores (colas, hilos, descartes) no cuestan nada
+// mientras nadie mira: se leen recién al pedir una foto.
+//
+// La misma foto sale por tres lados: JMX (jconsole, VisualVM: chat:type=Servidor,name=...),
+// el comando /estadisticas y, con --metricas=archivo, un archivo "clave=valor" que se reescribe
+// cada --metricas-s segundos (entero: quien lo lee nunca ve uno a medio escribir).
+final class Metrics implements DynamicMBean {
+    // ---------------- CONTADORES ----------------
+    final LongAdder connections = new LongAdder();   // Conexiones TCP aceptadas
+    final LongAdder logins = new LongAdder();        // Usuarios que entraron
+    final LongAdder messagesIn = new LongAdder();    // Líneas, frames o datagramas recibidos
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder messagesOut = new LongAdder();   // Líneas encoladas hacia los clientes
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder slowConsumers = new LongAdder(); // Desconectados por no vaciar su cola
+    // Desde que el lector recibió un mensaje de chat hasta que quedó encolado para toda la sala (us)
+    final LatencyHistogram fanout = new LatencyHistogram();
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Map<String, LongSupplier> values = new LinkedHashMap<>();   // En orden de registro
+
+    Metrics() {
+        counter("conexiones", connections);
+        counter("logins", logins);
+        counter("mensajes_entrada", messagesIn);
+        counter("bytes_entrada", bytesIn);
+        counter("mensajes_salida", messagesOut);
+        counter("bytes_salida", bytesOut);
+        counter("clientes_lentos", slowConsumers);
+        gauge("fanout_mensajes", fanout::count);
+        gauge("fanout_p50_us", () -> fanout.percentile(0.50));
+        gauge("fanout_p99_us", () -> fanout.percentile(0.99));
+        gauge("fanout_p999_us", () -> fanout.percentile(0.999));
+        gauge("fanout_max_us", fanout::max);
+        gauge("hilos", THREADS::getThreadCount);
+        gauge("hilos_pico", THREADS::getPeakThreadCount);
+        gauge("log_descartados", Log::dropped);
+    }
+
+    // Agregar un valor a la foto (se lee en cada foto, desde otro hilo)
+    synchronized void gauge(String name, LongSupplier reader) {
+        values.put(name, reader);
+    }
+
+    private void counter(String name, LongAdder adder) {
+        gauge(name, adder::sum);
+    }
+
+    // Un mensaje recibido de size bytes
+    void received(int size) {
+        messagesIn.increment();
+        bytesIn.add(size);
+    }
+
+    // Una línea de size bytes encolada para un cliente
+    void sent(int size) {
+        messagesOut.increment();
+        bytesOut.add(size);
+    }
+
+    // ---------------- FOTO ----------------
+
+    synchronized Map<String, Long> snapshot() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        for (Map.Entry<String, LongSupplier> e : values.entrySet()) out.put(e.getKey(), e.getValue().getAsLong());
+        return out;
+    }
+
+    // "clave=valor, clave=valor, ..." para /estadisticas
+    String summary() {
+        List<String> parts = new ArrayList<>();
+        for (Map.Entry<String, Long> e : snapshot().entrySet()) parts.add(e.getKey() + "=" + e.getValue());
+        return String.join(", ", parts);
+    }
+
+    // JMX (salvo --sin-jmx) y archivo de fotos (--metricas=archivo --metricas-s=N)
+    void publish(Options opts, String name, String tag) {
+        if (!opts.getBoolean("sin-jmx", false)) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                        new ObjectName("chat:type=Servidor,name=" + ObjectName.quote(name)));
+            } catch (JMException e) {
+                Log.warn(tag + " No se pudieron publicar las métricas por JMX: {}", e.getMessage());
+            }
+        }
+        String file = opts.get("metricas", null);
+        if (file != null) startSnapshots(Paths.get(file), opts.getInt("metricas-s", 10) * 1000L, tag);
+    }
+
+    private void startSnapshots(Path file, long periodMillis, String tag) {
+        Log.info(tag + " Métricas cada {} s en {}", periodMillis / 1000, file);
+        Thread.ofVirtual().name("metricas-archivo").start(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(periodMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    write(file);
+                } catch (IOException e) {
+                    Log.warn(tag + " No se pudo escribir {}: {}", file, e.getMessage());
+                }
+            }
+        });
+    }
+
+    // Escribir la foto en un temporal y reemplazar el archivo de una vez
+    private void write(Path file) throws IOException {
+        StringBuilder out = new StringBuilder("# ").append(Instant.now()).append('\n');
+        for (Map.Entry<String, Long> e : snapshot().entrySet()) {
+            out.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(tmp, out, StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ---------------- JMX: un atributo de solo lectura por valor ----------------
+
+    @Override
+    public synchronized Object getAttribute(String attribute) throws AttributeNotFoundException {
+        LongSupplier reader = values.get(attribute);
+        if (reader == null) throw new AttributeNotFoundException(attribute);
+        return reader.getAsLong();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String a : attributes) {
+            try {
+                list.add(new Attribute(a, getAttribute(a)));
+            } catch (AttributeNotFoundException ignored) {
+                // Los que no existen se omiten, como pide DynamicMBean
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Solo lectura: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public synchronized MBeanInfo getMBeanInfo() {
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (String name : values.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Métricas del servidor de chat", attributes, null, null, null);
+    }
+}
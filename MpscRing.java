@@ -0,0 +1,70 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// --------------------- ANILLO MPSC SIN LOCKS ---------------------
+// Cola acotada de muchos productores y un solo consumidor (el esquema de Dmitry Vyukov):
+// cada casillero lleva un número de secuencia que dice si está libre para la vuelta actual o
+// ya tiene un elemento publicado. Los productores compiten solo con un CAS sobre tail; el
+// consumidor nunca toma locks ni hace CAS. Si está lleno, offer() devuelve false sin esperar.
+final class MpscRing<E> {
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();   // Próxima posición a reservar (productores)
+    private long head;                                  // Próxima posición a leer (solo el consumidor)
+
+    // capacity se redondea a la siguiente potencia de 2
+    MpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        slots = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        mask = size - 1;
+    }
+
+    // Publicar un elemento; false si el anillo está lleno. Seguro desde varios hilos.
+    boolean offer(E element) {
+        long pos = tail.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[idx] = element;
+                    sequences.lazySet(idx, pos + 1);   // Publica el elemento para el consumidor
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;                          // El consumidor no liberó este casillero: lleno
+            } else {
+                pos = tail.get();                      // Otro productor ya tomó esta posición
+            }
+        }
+    }
+
+    // Sacar el próximo elemento o null si no hay. Solo desde el hilo consumidor.
+    @SuppressWarnings("unchecked")
+    E poll() {
+        int idx = (int) (head & mask);
+        if (sequences.get(idx) != head + 1) return null;
+        E element = (E) slots[idx];
+        slots[idx] = null;
+        sequences.lazySet(idx, head + slots.length);   // Libre para la próxima vuelta
+        head++;
+        return element;
+    }
+
+    boolean isEmpty() {
+        return sequences.get((int) (head & mask)) != head + 1;
+    }
+
+    // Elementos esperando. Leído desde otro hilo que el consumidor es aproximado (sirve de medidor).
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Opciones de línea de comandos: los argumentos "--clave=valor" son opciones con nombre,
+// "--clave" solo equivale a "--clave=true" y el resto quedan como argumentos posicionales.
+final class Options {
+    private final Map<String, String> values = new HashMap<>();
+    private final List<String> positional = new ArrayList<>();
+
+    Options(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int eq = arg.indexOf('=');
+                if (eq < 0) values.put(arg.substring(2), "true");
+                else values.put(arg.substring(2, eq), arg.substring(eq + 1));
+            } else {
+                positional.add(arg);
+            }
+        }
+    }
+
+    // Argumento posicional número i (o el valor por defecto si no se pasó)
+    String positional(int i, String def) {
+        return i < positional.size() ? positional.get(i) : def;
+    }
+
+    String get(String key, String def) {
+        String v = values.get(key);
+        return v != null ? v : def;
+    }
+
+    int getInt(String key, int def) {
+        String v = values.get(key);
+        return v != null ? Integer.parseInt(v) : def;
+    }
+
+    boolean getBoolean(String key, boolean def) {
+        String v = values.get(key);
+        return v != null ? Boolean.parseBoolean(v) : def;
+    }
+
+    double getDouble(String key, double def) {
+        String v = values.get(key);
+        return v != null ? Double.parseDouble(v) : def;
+    }
+}
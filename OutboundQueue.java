@@ -0,0 +1,187 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// --------------------- COLA DE SALIDA DE UN CLIENTE ---------------------
+// broadcast() solo encola aquí; un escritor propio del cliente la vacía hacia el socket.
+// Está acotada por mensajes y por bytes, y la política decide qué pasa con un cliente lento.
+// Quien encola nunca espera, así que no hay política "bloquear con tiempo máximo": el motor del
+// chat atiende a todos los clientes, un reactor a todas sus conexiones y el relevo encola con su
+// monitor tomado, el mismo que toma el motor al publicar. Esperar a un solo cliente o enlace
+// lento frenaría a todos los demás; para eso están descartar y desconectar.
+final class OutboundQueue {
+
+    // Qué hacer cuando la cola de un cliente está llena
+    enum Action {
+        DESCARTAR,    // Tirar los mensajes más viejos para hacer lugar
+        DESCONECTAR   // Cortar la conexión del cliente lento
+    }
+
+    // Configuración común a todas las colas del servidor
+    static final class Policy {
+        final Action action;
+        final int maxMessages;
+        final long maxBytes;
+        // Escritura en lotes: cuántos frames/bytes se juntan en una sola escritura y cuánto
+        // puede esperar el escritor a que lleguen más mientras hay ráfaga (0 = nunca espera)
+        final int batchMessages;
+        final int batchBytes;
+        final long lingerNanos;
+
+        Policy(Action action, int maxMessages, long maxBytes) {
+            this(action, maxMessages, maxBytes, 64, 64 * 1024, 0);
+        }
+
+        Policy(Action action, int maxMessages, long maxBytes, int batchMessages, int batchBytes, long lingerNanos) {
+            this.action = action;
+            this.maxMessages = maxMessages;
+            this.maxBytes = maxBytes;
+            this.batchMessages = batchMessages;
+            this.batchBytes = batchBytes;
+            this.lingerNanos = lingerNanos;
+        }
+
+        // --politica=descartar|desconectar --cola-mensajes=N --cola-bytes=N
+        // --lote-mensajes=N --lote-bytes=N --espera-us=N
+        // IllegalArgumentException si la política no existe (también la vieja "bloquear")
+        static Policy from(Options opts) {
+            String name = opts.get("politica", "desconectar");
+            if (opts.get("bloqueo-ms", null) != null || name.equalsIgnoreCase("bloquear")) {
+                throw new IllegalArgumentException("La política bloquear (y --bloqueo-ms) ya no existe:"
+                        + " el servidor nunca espera a un cliente lento (use descartar o desconectar)");
+            }
+            Action action;
+            try {
+                action = Action.valueOf(name.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Política desconocida: " + name + " (use descartar o desconectar)");
+            }
+            return new Policy(action,
+                    opts.getInt("cola-mensajes", 1024),
+                    opts.getInt("cola-bytes", 1024 * 1024),
+                    opts.getInt("lote-mensajes", 64),
+                    opts.getInt("lote-bytes", 64 * 1024),
+                    TimeUnit.MICROSECONDS.toNanos(opts.getInt("espera-us", 200)));
+        }
+
+        @Override
+        public String toString() {
+            return action.name().toLowerCase() + " (" + maxMessages + " mensajes / " + maxBytes + " bytes), lotes de "
+                    + batchMessages + " mensajes / " + batchBytes + " bytes, espera " + lingerNanos / 1000 + " us";
+        }
+    }
+
+    private final Policy policy;
+    private final ArrayDeque<Frame> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private long bytes;                 // Bytes encolados ahora mismo
+    private long dropped;               // Mensajes descartados por la política DESCARTAR
+    private boolean closed;
+
+    OutboundQueue(Policy policy) {
+        this.policy = policy;
+    }
+
+    // Encolar un mensaje sin esperar nunca. Devuelve false si el cliente debe ser desconectado por lento.
+    boolean offer(Frame frame) {
+        lock.lock();
+        try {
+            if (closed) return true;
+            while (isFull(frame.size())) {
+                switch (policy.action) {
+                    case DESCARTAR:
+                        if (queue.isEmpty()) break;     // Un mensaje más grande que el límite entra solo
+                        bytes -= queue.pollFirst().size();
+                        dropped++;
+                        continue;
+                    default:
+                        return false;
+                }
+                break;
+            }
+            queue.addLast(frame);
+            bytes += frame.size();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isFull(int extra) {
+        return !queue.isEmpty() && (queue.size() >= policy.maxMessages || bytes + extra > policy.maxBytes);
+    }
+
+    // Sacar el próximo mensaje esperando si no hay; null cuando la cola se cerró y quedó vacía
+    Frame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) notEmpty.await();
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Sacar el próximo mensaje esperando como máximo nanos (null si no llegó ninguno)
+    Frame poll(long nanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Sacar el próximo mensaje sin esperar (null si no hay)
+    Frame poll() {
+        lock.lock();
+        try {
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Frame removeFirst() {
+        Frame frame = queue.pollFirst();
+        if (frame != null) bytes -= frame.size();
+        return frame;
+    }
+
+    // No aceptar más mensajes; el escritor termina cuando vacía lo pendiente
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Mensajes esperando a que el escritor los tome
+    int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long dropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// --------------------- LÍMITE DE TRÁFICO POR CONEXIÓN ---------------------
+// Cubetas de fichas (token bucket) de cada conexión: una para mensajes por segundo, otra para
+// bytes por segundo y otra, aparte, para comandos (/listar, /salas...), así el spam de
+// comandos no gasta el cupo de mensajes ni al revés. Cada cubeta se llena a su tasa hasta
+// la ráfaga configurada; un mensaje que no encuentra fichas se descarta antes de hacer
+// broadcast (o, con DESCONECTAR, corta la conexión): un cliente desbocado no multiplica su
+// tráfico por la cantidad de usuarios.
+final class RateLimiter {
+
+    // Qué hacer con quien supera su límite
+    enum Action {
+        DESCARTAR,    // Tirar el mensaje (y avisarle, como mucho una vez por segundo)
+        DESCONECTAR   // Cortar la conexión
+    }
+
+    enum Verdict { OK, LIMITED, DISCONNECT }
+
+    // Configuración común a todas las conexiones del servidor
+    static final class Policy {
+        final double messagesPerSecond;
+        final double messageBurst;
+        final double bytesPerSecond;
+        final double byteBurst;            // También es el mensaje más grande que puede pasar
+        final double commandsPerSecond;
+        final double commandBurst;
+        final Action action;
+
+        Policy(double messagesPerSecond, double messageBurst, double bytesPerSecond, double byteBurst,
+               double commandsPerSecond, double commandBurst, Action action) {
+            this.messagesPerSecond = messagesPerSecond;
+            this.messageBurst = messageBurst;
+            this.bytesPerSecond = bytesPerSecond;
+            this.byteBurst = byteBurst;
+            this.commandsPerSecond = commandsPerSecond;
+            this.commandBurst = commandBurst;
+            this.action = action;
+        }
+
+        // --limite-mensajes=N --limite-rafaga=N --limite-bytes=N --limite-rafaga-bytes=N
+        // --limite-comandos=N --limite-rafaga-comandos=N --limite-accion=descartar|desconectar;
+        // null con --sin-limite
+        static Policy from(Options opts) {
+            if (opts.getBoolean("sin-limite", false)) return null;
+            return new Policy(
+                    opts.getDouble("limite-mensajes", 50),
+                    opts.getDouble("limite-rafaga", 100),
+                    opts.getDouble("limite-bytes", 64 * 1024),
+                    opts.getDouble("limite-rafaga-bytes", 128 * 1024),
+                    opts.getDouble("limite-comandos", 10),
+                    opts.getDouble("limite-rafaga-comandos", 20),
+                    Action.valueOf(opts.get("limite-accion", "descartar").toUpperCase()));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.0f mensajes/s (ráfaga %.0f), %.0f bytes/s (ráfaga %.0f), %.0f comandos/s (ráfaga %.0f), %s",
+                    messagesPerSecond, messageBurst, bytesPerSecond, byteBurst, commandsPerSecond, commandBurst,
+                    action.name().toLowerCase());
+        }
+    }
+
+    // Una cubeta: fichas que se reponen a rate por segundo, hasta burst
+    private static final class Bucket {
+        private final double rate;
+        private final double burst;
+        private double tokens;
+        private long last;
+
+        Bucket(double rate, double burst, long now) {
+            this.rate = rate;
+            this.burst = burst;
+            this.tokens = burst;
+            this.last = now;
+        }
+
+        boolean has(double n, long now) {
+            tokens = Math.min(burst, tokens + (now - last) * rate / 1e9);
+            last = now;
+            return tokens >= n;
+        }
+
+        void take(double n) {
+            tokens -= n;
+        }
+    }
+
+    private static final long NOTICE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Action action;
+    private final Bucket messages;
+    private final Bucket bytes;
+    private final Bucket commands;
+    private long limited;                  // Mensajes y comandos rechazados
+    private long lastNotice;
+
+    RateLimiter(Policy policy) {
+        long now = System.nanoTime();
+        this.action = policy.action;
+        this.messages = new Bucket(policy.messagesPerSecond, policy.messageBurst, now);
+        this.bytes = new Bucket(policy.bytesPerSecond, policy.byteBurst, now);
+        this.commands = new Bucket(policy.commandsPerSecond, policy.commandBurst, now);
+        this.lastNotice = now - NOTICE_NANOS;
+    }
+
+    // Un mensaje de chat de size bytes
+    synchronized Verdict message(int size) {
+        long now = System.nanoTime();
+        boolean ok = messages.has(1, now);
+        ok = bytes.has(size, now) && ok;     // Reponer las dos aunque la primera no alcance
+        if (!ok) return reject();
+        messages.take(1);
+        bytes.take(size);
+        return Verdict.OK;
+    }
+
+    // Un comando (o un intento de login)
+    synchronized Verdict command() {
+        if (!commands.has(1, System.nanoTime())) return reject();
+        commands.take(1);
+        return Verdict.OK;
+    }
+
+    // true si conviene avisarle al usuario que se le descartó algo (como mucho una vez por segundo)
+    synchronized boolean shouldNotify() {
+        long now = System.nanoTime();
+        if (now - lastNotice < NOTICE_NANOS) return false;
+        lastNotice = now;
+        return true;
+    }
+
+    synchronized long limited() {
+        return limited;
+    }
+
+    private Verdict reject() {
+        limited++;
+        return action == Action.DESCONECTAR ? Verdict.DISCONNECT : Verdict.LIMITED;
+    }
+
+    // ---------------- QUIÉN ESTÁ SIENDO LIMITADO ----------------
+    // Cuenta los rechazos de todo el servidor y, cada período, anota en el log a quiénes se
+    // limitó y cuántas veces (solo si hubo alguno)
+    static final class Monitor {
+        private final LongAdder total = new LongAdder();
+        private final ConcurrentHashMap<String, LongAdder> recent = new ConcurrentHashMap<>();
+        private final String tag;
+
+        Monitor(String tag) {
+            this.tag = tag;
+        }
+
+        void record(String user) {
+            total.increment();
+            recent.computeIfAbsent(user, k -> new LongAdder()).increment();
+        }
+
+        // Rechazos desde que arrancó el servidor
+        long total() {
+            return total.sum();
+        }
+
+        void start(long periodMillis) {
+            Thread.ofVirtual().name("limite-reporte").start(() -> {
+                while (true) {
+                    try {
+                        Thread.sleep(periodMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    report(periodMillis);
+                }
+            });
+        }
+
+        private void report(long periodMillis) {
+            if (recent.isEmpty()) return;
+            List<String> parts = new ArrayList<>();
+            for (Map.Entry<String, LongAdder> e : recent.entrySet()) {
+                parts.add(e.getKey() + " " + e.getValue().sum());
+                recent.remove(e.getKey(), e.getValue());
+            }
+            parts.sort(null);
+            Log.warn(tag + " Limitados en los últimos {} s: {}", periodMillis / 1000, String.join(", ", parts));
+        }
+    }
+}
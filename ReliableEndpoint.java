@@ -0,0 +1,605 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// --------------------- ENTREGA FIABLE SOBRE UDP ---------------------
+// Capa opcional entre ClientUDP y ServerUDP: cada sesión (par de direcciones) numera sus
+// mensajes, el receptor los entrega en orden y sin duplicados, y responde con ACKs que dicen
+// hasta dónde llegó todo (acumulado) y qué llegó salteado después (SACK de 64 bits). El emisor
+// mantiene una ventana de mensajes en vuelo y retransmite los que vencen su RTO, calculado
+// con el RTT medido (RFC 6298, sin muestrear retransmisiones), o antes si el SACK muestra
+// que llegaron tres mensajes posteriores. Un mensaje perdido solo retrasa a los que vienen detrás en su sesión.
+//
+// La secuencia numera datagramas, no mensajes: los mensajes que esperan en la cola de una
+// sesión salen juntos en un mismo datagrama hasta llenar el MTU, y uno que no entra en un
+// datagrama se parte en fragmentos con secuencias consecutivas. Como la entrega es en orden,
+// el receptor rearma el mensaje pegando los fragmentos hasta el que no tiene la marca "sigue".
+// Entre beginBatch() y flushBatch() los envíos y los ACKs de un hilo se juntan por sesión y
+// salen al final de la tanda, así una ráfaga de mensajes viaja en pocos datagramas.
+//
+// Nadie espera al socket: envía el motor del chat, que no se puede frenar. Si el buffer de
+// envío está lleno el datagrama queda en una cola acotada que el temporizador vacía en cada
+// tick; si la cola también se llena se descarta, como haría la red (lo fiable se retransmite).
+//
+// Formato (big-endian), siempre empieza con el byte 0, que un mensaje de texto no usa:
+//   DATOS: 0 'D' sesión(int) secuencia(int) registro...
+//          registro = largo(short) bytes; el bit alto del largo indica que el mensaje sigue
+//          en el próximo datagrama (fragmento)
+//   ACK:   0 'A' sesión(int) acumulado(int) sack(long) eco(int)
+//          acumulado = próxima secuencia esperada, bit i del sack = llegó acumulado + 1 + i,
+//          eco = secuencia del último mensaje recibido (de ese envío se mide el RTT)
+// Por dentro las secuencias son long y no dan la vuelta; en el cable van sus 32 bits bajos, y
+// quien los recibe los completa con el valor más cercano a lo que espera (como los números de
+// paquete de QUIC): alcanza mientras en vuelo haya mucho menos de 2^31 datagramas.
+final class ReliableEndpoint {
+    private static final byte MARK = 0;
+    private static final byte DATA = 'D';
+    private static final byte ACK = 'A';
+    static final int DATA_HEADER = 10;
+    private static final int RECORD_HEADER = 2;
+    private static final int MORE = 0x8000;           // Bit "sigue" en el largo de un registro
+    private static final int MAX_RECORD = 0x7fff;
+    private static final int MAX_MESSAGE = 1 << 20;   // Tope al rearmar fragmentos (1 MB)
+    private static final int ACK_SIZE = 22;
+    private static final int RECEIVE_WINDOW = 4096;   // Datagramas salteados que se guardan por sesión
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long INITIAL_RTO = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int MAX_QUEUED = 8192;       // Datagramas esperando lugar en el socket
+    private static final int MAX_DATAGRAM = 65507;    // Carga útil máxima de un datagrama UDP
+
+    // Qué hacer con lo que llega y con las sesiones que se pierden
+    interface Listener {
+        // Mensaje entregado en orden; lo llama el hilo que recibió el datagrama
+        void deliver(SocketAddress from, ByteBuffer message) throws IOException;
+        // El otro extremo no respondió a los reintentos o su cola de envío se desbordó
+        void lost(SocketAddress peer);
+        // El otro extremo abrió una sesión nueva (primer dato, o reinició): ocupa memoria hasta
+        // que alguien llame a close() o se pierda, así que quien no la espera debe vigilarla
+        default void opened(SocketAddress peer) {}
+    }
+
+    // --ventana=N --pendientes=N --mtu=N --perdida=0..1 --rto-min-ms=N --rto-max-ms=N --reintentos=N
+    static final class Config {
+        final int window;          // Datagramas en vuelo sin confirmar por sesión (con 64 el SACK la cubre entera)
+        final int backlog;         // Mensajes esperando lugar en la ventana; si se pasa, la sesión se pierde
+        final int mtu;             // Tamaño máximo de un datagrama de datos (encabezado incluido)
+        final double lossRate;     // Pérdida simulada de datagramas salientes (0 = ninguna)
+        final long minRto;
+        final long maxRto;
+        final int maxRetries;      // Retransmisiones de un mismo datagrama antes de dar la sesión por perdida
+
+        Config(int window, int backlog, int mtu, double lossRate, long minRto, long maxRto, int maxRetries) {
+            this.window = window;
+            this.backlog = backlog;
+            this.mtu = Math.max(64, Math.min(mtu, DATA_HEADER + RECORD_HEADER + MAX_RECORD));
+            this.lossRate = lossRate;
+            this.minRto = minRto;
+            this.maxRto = maxRto;
+            this.maxRetries = maxRetries;
+        }
+
+        // MTU por defecto: 1500 de Ethernet menos los encabezados IPv4 (20) y UDP (8), para
+        // que un datagrama nunca se fragmente en la capa IP (un fragmento perdido lo pierde entero)
+        static Config from(Options opts) {
+            return new Config(opts.getInt("ventana", 64),
+                    opts.getInt("pendientes", 4096),
+                    opts.getInt("mtu", 1472),
+                    opts.getDouble("perdida", 0),
+                    TimeUnit.MILLISECONDS.toNanos(opts.getInt("rto-min-ms", 200)),
+                    TimeUnit.MILLISECONDS.toNanos(opts.getInt("rto-max-ms", 2000)),
+                    opts.getInt("reintentos", 20));
+        }
+    }
+
+    // Datagrama enviado y todavía sin confirmar
+    private static final class Pending {
+        final ByteBuffer packet;   // Encabezado + registros, listo para reenviar
+        long sentAt;
+        int transmissions = 1;
+
+        Pending(ByteBuffer packet, long sentAt) {
+            this.packet = packet;
+            this.sentAt = sentAt;
+        }
+    }
+
+    // Datagrama que no entró en el buffer del socket
+    private static final class Queued {
+        final ByteBuffer datagram;
+        final SocketAddress to;
+
+        Queued(ByteBuffer datagram, SocketAddress to) {
+            this.datagram = datagram;
+            this.to = to;
+        }
+    }
+
+    private static final class Session {
+        final SocketAddress peer;
+        final int id;                 // Lo elige quien inicia la sesión; otro id = el cliente reinició
+        final ReentrantLock lock = new ReentrantLock();
+        // ---- envío ----
+        long nextSeq;
+        long highestAcked = -1;       // Mayor secuencia confirmada (por acumulado o por SACK)
+        final TreeMap<Long, Pending> inFlight = new TreeMap<>();
+        final ArrayDeque<byte[]> backlog = new ArrayDeque<>();
+        int sentBytes;                // Bytes del primer mensaje del backlog que ya salieron como fragmentos
+        long srtt = -1;
+        long rttvar;
+        long rto = INITIAL_RTO;
+        boolean closing;              // Cerrar en cuanto se confirme lo pendiente
+        long drainedAt;               // Cuándo quedó todo confirmado tras close() (0 = todavía no)
+        // ---- recepción ----
+        long expected;                // Próxima secuencia a entregar
+        int unacked;                  // Recibidos en orden desde el último ACK (ACK demorado)
+        boolean ackDue;               // Confirmar al cerrar la tanda (ver flushBatch())
+        long lastReceived;            // Secuencia del último datagrama recibido, para el eco del ACK
+        final TreeMap<Long, byte[]> outOfOrder = new TreeMap<>();
+        ByteArrayOutputStream partial; // Fragmentos del mensaje que se está rearmando
+        boolean skipping;             // Descartando el resto de un mensaje que pasó MAX_MESSAGE
+
+        Session(SocketAddress peer, int id) {
+            this.peer = peer;
+            this.id = id;
+        }
+    }
+
+    private final DatagramChannel channel;
+    private final Config config;
+    private final Listener listener;
+    private final ConcurrentHashMap<SocketAddress, Session> sessions = new ConcurrentHashMap<>();
+    private final LongAdder retransmissions = new LongAdder();
+    private final ConcurrentLinkedQueue<Queued> queued = new ConcurrentLinkedQueue<>();   // Los vacía el temporizador
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final LongAdder discarded = new LongAdder();
+    // Sesiones con envíos o ACKs pendientes de la tanda en curso de cada hilo (null = sin tanda)
+    private final ThreadLocal<Set<Session>> batch = new ThreadLocal<>();
+    private volatile boolean running = true;
+
+    ReliableEndpoint(DatagramChannel channel, Config config, Listener listener) {
+        this.channel = channel;
+        this.config = config;
+        this.listener = listener;
+        Thread.ofVirtual().name("udp-retransmision").start(this::timerLoop);
+    }
+
+    // ¿Hay una sesión fiable con esta dirección? (Si no, se le habla con datagramas sueltos.)
+    boolean has(SocketAddress peer) {
+        return sessions.containsKey(peer);
+    }
+
+    // ---------------- ENVÍO ----------------
+
+    // Encolar un mensaje para peer; sale ya si hay lugar en la ventana (o al cerrar la tanda
+    // del hilo, si hay una abierta). false si la sesión se perdió porque el otro extremo no
+    // confirma y se juntaron más de backlog mensajes.
+    boolean send(SocketAddress peer, byte[] message) throws IOException {
+        Session s = sessions.computeIfAbsent(peer, p -> new Session(p, ThreadLocalRandom.current().nextInt()));
+        Set<Session> pending = batch.get();
+        List<ByteBuffer> out;
+        s.lock.lock();
+        try {
+            if (s.backlog.size() >= config.backlog) {
+                out = null;
+            } else {
+                s.backlog.addLast(message);
+                out = pending == null ? fillWindow(s, System.nanoTime()) : List.of();
+            }
+        } finally {
+            s.lock.unlock();
+        }
+        if (out == null) {
+            lose(s);
+            return false;
+        }
+        if (pending != null) pending.add(s);
+        transmit(out, peer);
+        return true;
+    }
+
+    // Abrir una tanda en este hilo: hasta flushBatch() los mensajes de send() y los ACKs de lo
+    // recibido se acumulan por sesión en lugar de salir de a uno
+    void beginBatch() {
+        if (batch.get() == null) batch.set(new LinkedHashSet<>());
+    }
+
+    // Cerrar la tanda: cada sesión tocada manda su cola empaquetada en datagramas de hasta
+    // MTU bytes y, si corresponde, un solo ACK por todo lo que recibió en la tanda
+    void flushBatch() throws IOException {
+        Set<Session> pending = batch.get();
+        if (pending == null) return;
+        batch.remove();
+        for (Session s : pending) {
+            if (sessions.get(s.peer) != s) continue;    // Se perdió o se cerró durante la tanda
+            List<ByteBuffer> out;
+            ByteBuffer ack = null;
+            s.lock.lock();
+            try {
+                out = fillWindow(s, System.nanoTime());
+                if (s.ackDue) ack = ackFor(s);
+            } finally {
+                s.lock.unlock();
+            }
+            if (ack != null) transmit(ack, s.peer);
+            transmit(out, s.peer);
+        }
+    }
+
+    // Terminar la sesión cuando el otro extremo haya confirmado todo lo enviado. Después queda
+    // un rato (2 * RTO máximo) confirmando retransmisiones, para que un datagrama viejo que
+    // llegue tarde no abra una sesión nueva con la secuencia en 0 y se entregue otra vez.
+    void close(SocketAddress peer) {
+        Session s = sessions.get(peer);
+        if (s == null) return;
+        s.lock.lock();
+        try {
+            s.closing = true;
+            markIfDrained(s, System.nanoTime());
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    private static void markIfDrained(Session s, long now) {
+        if (s.closing && s.drainedAt == 0 && s.inFlight.isEmpty() && s.backlog.isEmpty()) s.drainedAt = now;
+    }
+
+    void shutdown() {
+        running = false;
+    }
+
+    // Datagramas reenviados (por RTO o por SACK) desde que se creó el extremo
+    long retransmissions() {
+        return retransmissions.sum();
+    }
+
+    // Datagramas descartados porque el socket y la cola de salida estaban llenos
+    long discarded() {
+        return discarded.sum();
+    }
+
+    // Pasar mensajes del backlog a la ventana (con el lock de la sesión tomado). Cada datagrama
+    // lleva tantos mensajes enteros como entren en el MTU; un mensaje que entra entero en el
+    // próximo no se parte, y uno más grande que un datagrama sale en fragmentos.
+    private List<ByteBuffer> fillWindow(Session s, long now) {
+        List<ByteBuffer> out = new ArrayList<>();
+        int maxFragment = config.mtu - DATA_HEADER - RECORD_HEADER;
+        while (s.inFlight.size() < config.window && !s.backlog.isEmpty()) {
+            long seq = s.nextSeq++;
+            ByteBuffer packet = ByteBuffer.allocate(packetSize(s))
+                    .put(MARK).put(DATA).putInt(s.id).putInt((int) seq);
+            while (!s.backlog.isEmpty()) {
+                byte[] message = s.backlog.peekFirst();
+                int left = message.length - s.sentBytes;
+                int room = packet.remaining() - RECORD_HEADER;
+                if (left <= room) {
+                    packet.putShort((short) left).put(message, s.sentBytes, left);
+                    s.backlog.pollFirst();
+                    s.sentBytes = 0;
+                } else if (room > 0 && (packet.position() == DATA_HEADER || left > maxFragment)) {
+                    packet.putShort((short) (MORE | room)).put(message, s.sentBytes, room);
+                    s.sentBytes += room;
+                    break;
+                } else {
+                    break;
+                }
+            }
+            packet.flip();
+            s.inFlight.put(seq, new Pending(packet, now));
+            out.add(packet);
+        }
+        return out;
+    }
+
+    // Lo justo para lo que hay en el backlog, hasta el MTU (con el lock de la sesión tomado)
+    private int packetSize(Session s) {
+        int size = DATA_HEADER;
+        int skip = s.sentBytes;
+        for (byte[] message : s.backlog) {
+            size += RECORD_HEADER + message.length - skip;
+            skip = 0;
+            if (size >= config.mtu) return config.mtu;
+        }
+        return size;
+    }
+
+    // ---------------- RECEPCIÓN ----------------
+
+    // Procesar un datagrama recibido. false si no es de esta capa (texto suelto de un cliente
+    // sin --fiable); en ese caso el llamador lo atiende como siempre.
+    boolean receive(SocketAddress from, ByteBuffer datagram) throws IOException {
+        int base = datagram.position();
+        if (datagram.remaining() < DATA_HEADER || datagram.get(base) != MARK) return false;
+        byte type = datagram.get(base + 1);
+        int id = datagram.getInt(base + 2);
+        int seq = datagram.getInt(base + 6);
+        if (type == DATA) {
+            onData(from, id, seq, datagram.slice(base + DATA_HEADER, datagram.remaining() - DATA_HEADER));
+        } else if (type == ACK && datagram.remaining() >= ACK_SIZE) {
+            onAck(from, id, seq, datagram.getLong(base + 10), datagram.getInt(base + 18));
+        }
+        return true;
+    }
+
+    private void onData(SocketAddress from, int id, int wireSeq, ByteBuffer payload) throws IOException {
+        Session s = sessions.get(from);
+        if (s == null || s.id != id) {
+            // Primera vez que habla, o reinició con la misma dirección: la sesión vieja se pierde
+            if (s != null) lose(s);
+            Session fresh = new Session(from, id);
+            s = sessions.merge(from, fresh, (old, mine) -> old.id == id ? old : mine);
+            if (s == fresh) listener.opened(from);
+        }
+        Set<Session> pending = batch.get();
+        List<ByteBuffer> ready = null;
+        ByteBuffer ack = null;
+        s.lock.lock();
+        try {
+            long seq = unwrap(wireSeq, s.expected);
+            long ahead = seq - s.expected;
+            if (ahead >= RECEIVE_WINDOW) return;              // Fuera de la ventana: ni se confirma
+            s.lastReceived = seq;
+            boolean inOrder = ahead == 0 && s.outOfOrder.isEmpty();
+            if (ahead == 0) {
+                ready = new ArrayList<>();
+                unpack(s, payload, ready);                    // Se entrega desde el buffer del receptor
+                s.expected++;
+                byte[] next;
+                while ((next = s.outOfOrder.remove(s.expected)) != null) {
+                    unpack(s, ByteBuffer.wrap(next), ready);
+                    s.expected++;
+                }
+            } else if (ahead > 0 && !s.outOfOrder.containsKey(seq)) {
+                byte[] copy = new byte[payload.remaining()];
+                payload.get(copy);
+                s.outOfOrder.put(seq, copy);
+            }
+            // ahead < 0: duplicado ya entregado; solo se vuelve a confirmar.
+            // ACK demorado: en orden y sin huecos se confirma uno de cada dos (o en el próximo
+            // tick del temporizador); un hueco, un duplicado o un hueco que se llena, enseguida.
+            // Dentro de una tanda, "enseguida" es al cerrarla: un ACK por sesión y por tanda.
+            if (!inOrder || ++s.unacked >= 2) {
+                if (pending != null) {
+                    s.ackDue = true;
+                } else {
+                    ack = ackFor(s);
+                }
+            }
+        } finally {
+            s.lock.unlock();
+        }
+        if (pending != null) pending.add(s);
+        if (ack != null) transmit(ack, from);
+        if (ready != null) {
+            for (ByteBuffer m : ready) listener.deliver(from, m);
+        }
+    }
+
+    // Separar los registros de un datagrama en orden (con el lock de la sesión tomado). Un
+    // mensaje entero se entrega como una vista del datagrama; los fragmentos se copian en
+    // s.partial hasta el último.
+    private static void unpack(Session s, ByteBuffer payload, List<ByteBuffer> ready) {
+        while (payload.remaining() >= RECORD_HEADER) {
+            int header = payload.getShort() & 0xffff;
+            int length = Math.min(header & MAX_RECORD, payload.remaining());
+            ByteBuffer record = payload.slice(payload.position(), length);
+            payload.position(payload.position() + length);
+            boolean more = (header & MORE) != 0;
+            if (s.skipping) {
+                s.skipping = more;
+            } else if (s.partial == null && !more) {
+                ready.add(record);
+            } else {
+                if (s.partial == null) s.partial = new ByteArrayOutputStream();
+                byte[] fragment = new byte[length];
+                record.get(fragment);
+                s.partial.writeBytes(fragment);
+                if (s.partial.size() > MAX_MESSAGE) {
+                    s.partial = null;
+                    s.skipping = more;
+                } else if (!more) {
+                    ready.add(ByteBuffer.wrap(s.partial.toByteArray()));
+                    s.partial = null;
+                }
+            }
+        }
+    }
+
+    private ByteBuffer ackFor(Session s) {
+        s.unacked = 0;
+        s.ackDue = false;
+        long sack = 0;
+        for (long seq : s.outOfOrder.subMap(s.expected + 1, s.expected + 65).keySet()) {
+            sack |= 1L << (seq - s.expected - 1);
+        }
+        return ByteBuffer.allocate(ACK_SIZE).put(MARK).put(ACK).putInt(s.id).putInt((int) s.expected).putLong(sack)
+                .putInt((int) s.lastReceived).flip();
+    }
+
+    // La secuencia de 64 bits cuyos 32 bits bajos son wire, la más cercana a reference
+    static long unwrap(int wire, long reference) {
+        long seq = (reference & ~0xffffffffL) | (wire & 0xffffffffL);
+        if (seq - reference > 1L << 31) {
+            seq -= 1L << 32;
+        } else if (reference - seq > 1L << 31) {
+            seq += 1L << 32;
+        }
+        return seq;
+    }
+
+    private void onAck(SocketAddress from, int id, int wireCumulative, long sack, int wireEcho) throws IOException {
+        Session s = sessions.get(from);
+        if (s == null || s.id != id) return;
+        List<ByteBuffer> out;
+        s.lock.lock();
+        try {
+            long now = System.nanoTime();
+            long cumulative = unwrap(wireCumulative, s.nextSeq);   // Nunca más allá de lo enviado
+            long echo = unwrap(wireEcho, s.nextSeq);
+            // RTT: solo del mensaje que provocó este ACK y si no se retransmitió (Karn). Los demás
+            // que confirma pudieron llegar hace rato y quedar esperando detrás de un hueco.
+            Pending echoed = s.inFlight.get(echo);
+            if (echoed != null && echoed.transmissions == 1) updateRto(s, now - echoed.sentAt);
+            int before = s.inFlight.size();
+            s.inFlight.headMap(cumulative).clear();
+            for (long bits = sack; bits != 0; bits &= bits - 1) {
+                s.inFlight.remove(cumulative + 1 + Long.numberOfTrailingZeros(bits));
+            }
+            // Confirmó algo nuevo: el otro extremo responde, se deshace el backoff (como QUIC)
+            if (s.inFlight.size() < before && s.srtt >= 0) s.rto = baseRto(s);
+
+            out = fillWindow(s, now);
+            long highest = sack != 0 ? cumulative + 64 - Long.numberOfLeadingZeros(sack) : cumulative - 1;
+            if (highest - s.highestAcked > 0) s.highestAcked = highest;
+            recoverLosses(s, now, out);
+            markIfDrained(s, now);
+        } finally {
+            s.lock.unlock();
+        }
+        transmit(out, from);
+    }
+
+    // Recuperación por SACK (al estilo de RACK, RFC 8985): lo que sigue en vuelo con al menos
+    // tres mensajes posteriores ya confirmados se da por perdido y se reenvía en cuanto pasó algo
+    // más de un RTT desde su último envío, sin esperar el RTO ni hacer backoff. Se revisa con cada
+    // ACK y en cada tick, así un reenvío que también se pierde se repite en la vuelta siguiente.
+    private void recoverLosses(Session s, long now, List<ByteBuffer> out) {
+        long lossDelay = s.srtt < 0 ? s.rto : s.srtt + s.srtt / 4;
+        for (Pending p : s.inFlight.headMap(s.highestAcked - 2).values()) {
+            if (now - p.sentAt < lossDelay) continue;
+            p.transmissions++;
+            p.sentAt = now;
+            out.add(p.packet);
+            retransmissions.increment();
+        }
+    }
+
+    // RFC 6298: SRTT y RTTVAR con ganancias 1/8 y 1/4, RTO = SRTT + 4 * RTTVAR
+    private void updateRto(Session s, long sample) {
+        if (s.srtt < 0) {
+            s.srtt = sample;
+            s.rttvar = sample / 2;
+        } else {
+            s.rttvar = (3 * s.rttvar + Math.abs(s.srtt - sample)) / 4;
+            s.srtt = (7 * s.srtt + sample) / 8;
+        }
+        s.rto = baseRto(s);
+    }
+
+    private long baseRto(Session s) {
+        return Math.min(config.maxRto, Math.max(config.minRto, s.srtt + Math.max(TICK_NANOS, 4 * s.rttvar)));
+    }
+
+    // ---------------- RETRANSMISIÓN POR TIEMPO ----------------
+    private void timerLoop() {
+        while (running) {
+            try {
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(TICK_NANOS));
+                flushQueued();
+                for (Session s : sessions.values()) checkTimeouts(s);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                Log.debug("[UDP-FIABLE] Error retransmitiendo: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void checkTimeouts(Session s) throws IOException {
+        List<ByteBuffer> out = new ArrayList<>();
+        boolean dead = false;
+        s.lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (s.unacked > 0 || s.ackDue) out.add(ackFor(s));   // ACK demorado que nadie más confirmó
+            out.addAll(fillWindow(s, now));          // Por si una tanda quedó sin cerrar
+            if (s.drainedAt != 0 && now - s.drainedAt > 2 * config.maxRto) sessions.remove(s.peer, s);
+            recoverLosses(s, now, out);
+            // RTO: lo que nadie confirmó después (la cola de la ventana) se reenvía al vencer
+            boolean oldestExpired = !s.inFlight.isEmpty() && now - s.inFlight.firstEntry().getValue().sentAt >= s.rto;
+            for (Pending p : s.inFlight.values()) {
+                if (now - p.sentAt < s.rto) continue;
+                if (p.transmissions > config.maxRetries) {
+                    dead = true;
+                    break;
+                }
+                p.transmissions++;
+                p.sentAt = now;
+                out.add(p.packet);
+                retransmissions.increment();
+            }
+            // Backoff exponencial cuando vence el más viejo (el temporizador de RFC 6298);
+            // se vuelve al valor calculado con la próxima medición de RTT
+            if (oldestExpired && !dead) s.rto = Math.min(config.maxRto, s.rto * 2);
+        } finally {
+            s.lock.unlock();
+        }
+        if (dead) {
+            lose(s);
+        } else {
+            transmit(out, s.peer);
+        }
+    }
+
+    private void lose(Session s) {
+        if (sessions.remove(s.peer, s)) listener.lost(s.peer);
+    }
+
+    // ---------------- SALIDA AL CANAL ----------------
+    private void transmit(List<ByteBuffer> packets, SocketAddress to) throws IOException {
+        for (ByteBuffer packet : packets) transmit(packet, to);
+    }
+
+    private void transmit(ByteBuffer packet, SocketAddress to) throws IOException {
+        if (config.lossRate > 0 && ThreadLocalRandom.current().nextDouble() < config.lossRate) return; // Pérdida simulada
+        sendDatagram(packet.duplicate(), to);
+    }
+
+    // Enviar un datagrama por el canal (también uno suelto, fuera de toda sesión) sin esperar
+    // nunca. Si el buffer del socket está lleno, o ya hay otros esperando (para no adelantarse),
+    // queda en la cola del temporizador; si la cola está llena, se descarta.
+    void sendDatagram(ByteBuffer datagram, SocketAddress to) throws IOException {
+        if (datagram.remaining() > MAX_DATAGRAM) {   // No saldría nunca: ni se intenta ni se encola
+            discarded.increment();
+            throw new IOException("Datagrama de " + datagram.remaining() + " bytes, el máximo es " + MAX_DATAGRAM);
+        }
+        if (queued.isEmpty() && channel.send(datagram, to) > 0) return;
+        if (queuedCount.incrementAndGet() > MAX_QUEUED) {
+            queuedCount.decrementAndGet();
+            discarded.increment();
+            return;
+        }
+        queued.add(new Queued(datagram, to));
+    }
+
+    // Mandar lo que esperaba hasta que el socket se vuelva a llenar (solo el temporizador).
+    // Uno que falla se descarta: reintentarlo trabaría la cola y con ella toda la salida.
+    private void flushQueued() {
+        Queued q;
+        while ((q = queued.peek()) != null) {
+            try {
+                if (channel.send(q.datagram, q.to) == 0) return;
+            } catch (IOException e) {
+                discarded.increment();
+                Log.debug("[UDP-FIABLE] Se descartó un datagrama para {}: {}", q.to, e.getMessage());
+            }
+            queued.poll();
+            queuedCount.decrementAndGet();
+        }
+    }
+}
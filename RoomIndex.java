@@ -0,0 +1,69 @@
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// --------------------- ÍNDICE DE SALAS ---------------------
+// Índice concurrente sala -> miembros (y miembro -> sala). Cada miembro está en una sola sala;
+// un mensaje recorre solo los miembros de su sala, no a todos los usuarios del servidor.
+// Las salas vacías se eliminan solas. M es el tipo de miembro (cliente TCP, dirección UDP).
+final class RoomIndex<M> {
+    static final String DEFAULT = "general";   // Sala donde entra todo usuario al hacer login
+    static final int MAX_NAME = 32;            // Largo máximo del nombre de una sala
+
+    private final ConcurrentHashMap<String, Set<M>> rooms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<M, String> roomOf = new ConcurrentHashMap<>();
+
+    // Normalizar el nombre de una sala; null si no es válido
+    static String normalize(String name) {
+        name = name.trim().toLowerCase();
+        if (name.isEmpty() || name.length() > MAX_NAME || name.chars().anyMatch(Character::isWhitespace)) return null;
+        return name;
+    }
+
+    // Mover al miembro a la sala indicada. Devuelve la sala anterior (o null si no estaba en ninguna).
+    String join(M member, String room) {
+        String previous = roomOf.put(member, room);
+        if (room.equals(previous)) return previous;
+        if (previous != null) removeFrom(previous, member);
+        rooms.compute(room, (name, members) -> {
+            if (members == null) members = ConcurrentHashMap.newKeySet();
+            members.add(member);
+            return members;
+        });
+        return previous;
+    }
+
+    // Sacar al miembro del índice. Devuelve la sala en la que estaba (o null).
+    String leave(M member) {
+        String room = roomOf.remove(member);
+        if (room != null) removeFrom(room, member);
+        return room;
+    }
+
+    private void removeFrom(String room, M member) {
+        rooms.computeIfPresent(room, (name, members) -> {
+            members.remove(member);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    String roomOf(M member) {
+        return roomOf.get(member);
+    }
+
+    // Miembros actuales de una sala (vista concurrente: se puede recorrer mientras cambia)
+    Set<M> members(String room) {
+        Set<M> members = room == null ? null : rooms.get(room);
+        return members != null ? members : Set.of();
+    }
+
+    // Texto para /salas: "general (3), juegos (1)"
+    String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Set<M>> e : rooms.entrySet()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(e.getKey()).append(" (").append(e.getValue().size()).append(')');
+        }
+        return sb.toString();
+    }
+}
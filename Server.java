@@ -1,156 +1,441 @@
-import java.io.*;                     // Para leer y escribir datos (BufferedReader, PrintWriter, etc.)
-import java.net.*;                     // Para la comunicación en red (ServerSocket, Socket)
-import java.util.List;                 // Lista de clientes conectados
-import java.util.concurrent.CopyOnWriteArrayList; // Lista segura para uso concurrente entre hilos
-
-// --------------------- CLASE PRINCIPAL DEL SERVIDOR ---------------------
-public class Server {
-    private final int port;            // Puerto en el que escuchará el servidor
-    // Lista de clientes conectados, segura para acceso concurrente
-    private final List<ClientHandler> clients = new CopyOnWriteArrayList<>();
-
-    // Constructor: asigna el puerto al servidor
-    public Server(int port) {
-        this.port = port;
-    }
-
-    // Método para iniciar el servidor
-    public void start() {
-        System.out.println("[SERVIDOR] Iniciando en puerto " + port + " ...");
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("[SERVIDOR] Escuchando conexiones...");
-            while (true) {
-                Socket socket = serverSocket.accept(); // Espera hasta que un cliente se conecte
-                System.out.println("[SERVIDOR] Cliente conectado: " + socket.getRemoteSocketAddress());
-                ClientHandler handler = new ClientHandler(socket, this);
-                clients.add(handler);                 // Agregar cliente a la lista
-                new Thread(handler).start();          // Iniciar el hilo del cliente
-            }
-        } catch (IOException e) {
-            System.err.println("[SERVIDOR] Error: " + e.getMessage());
-        }
-    }
-
-    // -------------------- MÉTODOS DE UTILIDAD DEL SERVIDOR --------------------
-
-    // Enviar un mensaje a todos los clientes conectados (excepto a quien lo envió)
-    public void broadcast(String msg, ClientHandler exclude) {
-        for (ClientHandler c : clients) {
-            if (c != exclude) {       // No reenviar al emisor
-                c.send(msg);          // Enviar mensaje al cliente
-            }
-        }
-    }
-
-    // Obtener lista de usuarios conectados
-    public String listUsers() {
-        StringBuilder sb = new StringBuilder();
-        for (ClientHandler c : clients) {
-            if (c.getUsername() != null) {  // Solo usuarios que ya tienen nombre
-                if (sb.length() > 0) sb.append(", ");
-                sb.append(c.getUsername());
-            }
-        }
-        return sb.toString();
-    }
-
-    // Eliminar cliente desconectado y notificar a los demás
-    public void remove(ClientHandler handler) {
-        clients.remove(handler);
-        if (handler.getUsername() != null) {
-            broadcast("[SERVIDOR] " + handler.getUsername() + " se ha desconectado.", null);
-            System.out.println("[SERVIDOR] " + handler.getUsername() + " desconectado.");
-        }
-    }
-
-    // Punto de entrada principal del programa
-    public static void main(String[] args) {
-        int port = 5000; // Puerto por defecto
-        if (args.length >= 1) {
-            port = Integer.parseInt(args[0]); // Permite pasar otro puerto como argumento
-        }
-        new Server(port).start(); // Crear e iniciar el servidor
-    }
-
-    // --------------------- CLASE INTERNA: HANDLER DE CADA CLIENTE ---------------------
-    private static class ClientHandler implements Runnable {
-        private final Socket socket;         // Socket específico del cliente
-        private final Server server;         // Referencia al servidor para usar sus métodos
-        private BufferedReader in;           // Para leer datos que envía el cliente
-        private PrintWriter out;             // Para enviar datos al cliente
-        private String username;             // Nombre de usuario de este cliente
-
-        public ClientHandler(Socket socket, Server server) {
-            this.socket = socket;
-            this.server = server;
-        }
-
-        public String getUsername() { return username; }
-
-        // Enviar mensaje al cliente
-        public void send(String msg) {
-            try { out.println(msg); } catch (Exception ignored) {}
-        }
-
-        @Override
-        public void run() {
-            try {
-                // Streams en UTF-8
-                in  = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
-                out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
-
-                // ---------------- PEDIR NOMBRE DE USUARIO ----------------
-                out.println("[SERVIDOR] Bienvenido. Ingrese su nombre de usuario:");
-                String candidate;
-                while (true) {
-                    candidate = in.readLine();
-                    if (candidate == null) throw new IOException("Cliente cerró antes de enviar usuario.");
-                    candidate = candidate.trim();
-                    if (candidate.isEmpty()) {
-                        out.println("[SERVIDOR] Nombre vacío. Intente de nuevo:");
-                        continue;
-                    }
-                    this.username = candidate;
-                    break;
-                }
-
-                out.println("[SERVIDOR] Conectado como: " + username + ". Comandos: /listar o listar, /quitar o quitar");
-                server.broadcast("[SERVIDOR] " + username + " se ha unido al chat.", this);
-
-                // ---------------- BUCLE PRINCIPAL: ESCUCHAR MENSAJES ----------------
-                String line;
-                while ((line = in.readLine()) != null) {
-                    line = line.trim();
-                    if (line.isEmpty()) continue;
-
-                    // Log de depuración para ver exactamente qué llegó
-                    System.out.println("[DEBUG] Recibido de " + username + ": '" + line + "'");
-
-                    // ---- Comandos (acepta con y sin slash) ----
-                    String lower = line.toLowerCase();
-                    if (lower.equals("/listar") || lower.equals("listar")) {
-                        String users = server.listUsers();
-                        if (users.isEmpty()) users = "(sin usuarios)";
-                        out.println("[SERVIDOR] Usuarios conectados: " + users);
-                        continue;
-                    }
-                    if (lower.equals("/quitar") || lower.equals("quitar")) {
-                        out.println("[SERVIDOR] Desconectando. ¡Hasta luego!");
-                        break;
-                    }
-
-                    // ---- Mensaje normal ----
-                    String msg = "[" + username + "] " + line;
-                    System.out.println(msg);
-                    server.broadcast(msg, this);
-                }
-
-            } catch (IOException e) {
-                // caída inesperada del cliente
-            } finally {
-                try { socket.close(); } catch (IOException ignored) {}
-                server.remove(this);
-            }
-        }
-    }
-}
+import java.io.*;                     // Para leer datos (InputStream, DataInputStream, etc.)
+import java.net.*;                     // Para la comunicación en red (direcciones y sockets)
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.*;         // Ejecutores de los handlers
+
+// --------------------- CLASE PRINCIPAL DEL SERVIDOR ---------------------
+public class Server {
+    // Respuesta al saludo de un cliente binario (después de la bienvenida en texto)
+    static final Frame BINARY_HELLO = Frame.wrap(
+            BinaryProtocol.encode(BinaryProtocol.HELLO, new byte[] {BinaryProtocol.HANDSHAKE[5]}, 0, 1));
+    private static final int ENGINE_QUEUE = 64 * 1024;    // Comandos en espera del motor
+    static final int READ_BUFFER = 4 * 1024;              // Buffer de lectura inicial por conexión
+    static final int MAX_LINE = 64 * 1024;                // Línea más larga aceptada antes de cortar
+    // Comandos del protocolo de texto, reconocidos sobre los bytes de cada línea
+    private static final CommandTable COMMANDS = CommandTable.chat();
+
+    private final int port;            // Puerto en el que escuchará el servidor
+    private final String mode;         // Modo de E/S: "hilos", "virtual", "pool" o "nio" (Selector)
+    private final int threads;         // Hilos del pool (modo "pool", atiende threads / 2 clientes) o reactores (modo "nio")
+    private final OutboundQueue.Policy policy; // Límites de la cola de salida de cada cliente
+    // Contadores y medidores (JMX, /estadisticas y archivo de fotos)
+    private final Metrics metrics = new Metrics();
+    // Usuarios, salas, historial y cluster: todo lo atiende el motor en un solo hilo; los
+    // lectores de cada modo de E/S solo le pasan los comandos
+    private final ChatEngine engine = new ChatEngine("[SERVIDOR]", ENGINE_QUEUE, metrics);
+    // Límites de tráfico de cada conexión (null = sin límites) y registro de a quién se limitó
+    private RateLimiter.Policy limits;
+    private final RateLimiter.Monitor limited = new RateLimiter.Monitor("[SERVIDOR]");
+
+    // Constructor: asigna el puerto al servidor (modo clásico, un hilo por cliente)
+    public Server(int port) {
+        this(port, "hilos", 1, new OutboundQueue.Policy(OutboundQueue.Action.DESCONECTAR, 1024, 1024 * 1024));
+    }
+
+    public Server(int port, String mode, int threads, OutboundQueue.Policy policy) {
+        this.port = port;
+        this.mode = mode;
+        this.threads = threads;
+        this.policy = policy;
+        metrics.gauge("limitados", limited::total);
+    }
+
+    // Método para iniciar el servidor
+    public void start() {
+        Log.info("[SERVIDOR] Iniciando en puerto {} (modo {}) ...", port, mode);
+        Log.info("[SERVIDOR] Salida por cliente: {}", policy);
+        Log.info("[SERVIDOR] Límite por cliente: {}", limits != null ? limits : "ninguno");
+        limited.start(10_000);
+        engine.start();
+        if (mode.equals("nio")) {
+            startNio();
+        } else {
+            startBlocking();
+        }
+    }
+
+    // Modos bloqueantes: cada cliente queda leyendo su socket sobre el hilo que le da el ejecutor,
+    // y otro hilo del mismo ejecutor vacía su cola de salida
+    private void startBlocking() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             ExecutorService executor = newExecutor()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            Log.info("[SERVIDOR] Escuchando conexiones...");
+            while (true) {
+                SocketChannel channel = serverChannel.accept(); // Espera hasta que un cliente se conecte (canal bloqueante)
+                Log.info("[SERVIDOR] Cliente conectado: {}", channel.getRemoteAddress());
+                metrics.connections.increment();
+                ClientHandler handler = new ClientHandler(channel, this);
+                try {
+                    executor.execute(handler::writeLoop); // Escritor: vacía la cola de salida
+                    executor.execute(handler);            // Iniciar el hilo del cliente
+                } catch (RejectedExecutionException e) {
+                    // Pool lleno: se rechaza la conexión en vez de dejarla esperando sin atender
+                    Log.warn("[SERVIDOR] Pool lleno, rechazando {}", channel.getRemoteAddress());
+                    channel.write(Frame.of("[SERVIDOR] Servidor lleno. Intente más tarde.").buffer());
+                    handler.abort();
+                }
+            }
+        } catch (IOException e) {
+            Log.error("[SERVIDOR] Error: {}", e.getMessage());
+        }
+    }
+
+    // Ejecutor de los ClientHandler según el modo elegido al arrancar
+    private ExecutorService newExecutor() {
+        switch (mode) {
+            case "virtual":
+                // Un hilo virtual por cliente: una lectura bloqueada solo ocupa un poco de heap
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("cliente-", 0).factory());
+            case "pool":
+                // Como máximo "threads" hilos, dos por cliente (lector y escritor): entran threads / 2
+                // clientes y el siguiente se rechaza, sin cola de espera
+                return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                        new SynchronousQueue<>(), Thread.ofPlatform().name("cliente-", 0).factory());
+            default:
+                // Modo clásico: un hilo de plataforma por cliente
+                return Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("cliente-", 0).factory());
+        }
+    }
+
+    // Modo "nio": pocos hilos reactores atienden todas las conexiones con un Selector
+    private void startNio() {
+        try {
+            new ServerReactor(this, port, threads).run();
+        } catch (IOException e) {
+            Log.error("[SERVIDOR] Error: {}", e.getMessage());
+        }
+    }
+
+    // -------------------- MÉTODOS DE UTILIDAD DEL SERVIDOR --------------------
+
+    OutboundQueue.Policy outboundPolicy() {
+        return policy;
+    }
+
+    Metrics metrics() {
+        return metrics;
+    }
+
+    // Limitar el tráfico de cada conexión. Llamar antes de start().
+    void setRateLimits(RateLimiter.Policy limits) {
+        this.limits = limits;
+    }
+
+    // Cubetas para una conexión nueva (null sin límites)
+    RateLimiter newLimiter() {
+        RateLimiter.Policy p = limits;
+        return p != null ? new RateLimiter(p) : null;
+    }
+
+    // Guardar los mensajes de chat en history y repetir los últimos replay a quien entra.
+    // Llamar antes de start().
+    void setHistory(MessageLog history, int replay) {
+        engine.setHistory(history, replay);
+    }
+
+    // Federar con otros servidores: lo publicado aquí sale por cluster y lo de los demás entra
+    // por deliverRemote(). Llamar antes de start().
+    void setCluster(ClusterRelay cluster) {
+        engine.setCluster(cluster);
+    }
+
+    // Mensaje que recibe cada cliente al conectarse
+    String welcome() {
+        return "[SERVIDOR] Bienvenido. Ingrese su nombre de usuario:";
+    }
+
+    // Procesar una línea data[start, end) (sin el '\n') recibida de un cliente, sea cual sea el
+    // modo de E/S: el comando se reconoce sobre los bytes y solo se decodifica lo que se usa (el
+    // texto de un mensaje, el argumento de un comando o, antes del login, el nombre). Lo que el
+    // límite de tráfico descarta no llega a decodificarse. Se aplica el límite y se pasa al motor.
+    // Devuelve false cuando hay que dejar de leer (pidió desconectarse o superó el límite).
+    // Los bytes recibidos los cuenta quien corta las líneas, que sabe si terminaba en "\r\n".
+    boolean handleLine(ChatClient client, byte[] data, int start, int end) {
+        start = CommandTable.trimStart(data, start, end);
+        end = CommandTable.trimEnd(data, start, end);
+        boolean named = client.getUsername() != null;
+        if (start == end && named) return true;
+
+        // Log de depuración para ver exactamente qué llegó (apagado por defecto: --log-nivel=debug)
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug("Recibido de {}: '{}'", client.getUsername(), CommandTable.text(data, start, end));
+        }
+
+        byte type = COMMANDS.typeOf(data, start, end);
+        RateLimiter.Verdict verdict = admit(client, type, end - start);
+        if (verdict != RateLimiter.Verdict.OK) return verdict == RateLimiter.Verdict.LIMITED;
+        String line = named ? null : CommandTable.text(data, start, end);
+        String arg = type == BinaryProtocol.MESSAGE && line != null ? line : COMMANDS.argOf(type, data, start, end);
+        if (!engine.submit(client, type, arg, line)) return overloaded(client);
+        return type != BinaryProtocol.QUIT;
+    }
+
+    // Procesar un frame del protocolo binario: el tipo ya dice qué comando es y el texto puede
+    // tener varias líneas (solo se decodifica si el tipo lleva datos). Devuelve false cuando hay
+    // que dejar de leer.
+    boolean handleMessage(ChatClient client, BinaryProtocol.Message message) {
+        byte[] data = message.payload;
+        metrics.received(BinaryProtocol.HEADER + data.length);
+        int start = CommandTable.trimStart(data, 0, data.length);
+        int end = CommandTable.trimEnd(data, start, data.length);
+        byte type = message.type;
+        Log.debug("Recibido de {}: tipo {}", client.getUsername(), type);
+        RateLimiter.Verdict verdict = admit(client, type, end - start);
+        if (verdict != RateLimiter.Verdict.OK) return verdict == RateLimiter.Verdict.LIMITED;
+        boolean hasText = type == BinaryProtocol.MESSAGE || type == BinaryProtocol.LOGIN || COMMANDS.takesArg(type);
+        String text = hasText ? CommandTable.text(data, start, end) : "";
+        if (!engine.submitFrame(client, type, text)) return overloaded(client);
+        return type != BinaryProtocol.QUIT;
+    }
+
+    // El motor no hizo lugar a tiempo: a este cliente se lo desconecta en vez de seguir esperando
+    private boolean overloaded(ChatClient client) {
+        Log.warn("[SERVIDOR] Motor saturado, desconectando a {}.", client.getUsername());
+        client.send("[SERVIDOR] Servidor saturado, desconectando.");
+        return false;
+    }
+
+    // ---------------- LÍMITE DE TRÁFICO ----------------
+    // Se aplica en el hilo lector, antes de encolar: lo descartado nunca llega al motor.
+    private RateLimiter.Verdict admit(ChatClient client, byte type, int size) {
+        RateLimiter limiter = client.limiter();
+        if (limiter == null || type == BinaryProtocol.QUIT) return RateLimiter.Verdict.OK;   // Irse siempre se puede
+        RateLimiter.Verdict verdict = type == BinaryProtocol.MESSAGE && client.getUsername() != null
+                ? limiter.message(size) : limiter.command();
+        if (verdict != RateLimiter.Verdict.OK) throttled(client, limiter, verdict);
+        return verdict;
+    }
+
+    // Rechazar un mensaje o comando por encima del límite: descartarlo avisando (como mucho
+    // una vez por segundo, para no devolverle otro flood) o desconectar
+    private void throttled(ChatClient client, RateLimiter limiter, RateLimiter.Verdict verdict) {
+        String username = client.getUsername();
+        limited.record(username != null ? username : "(sin nombre)");
+        if (verdict == RateLimiter.Verdict.DISCONNECT) {
+            Log.warn("[SERVIDOR] {} superó el límite de tráfico, desconectando.", username);
+            client.send("[SERVIDOR] Desconectado por enviar demasiado rápido.");
+            return;
+        }
+        if (limiter.shouldNotify()) client.send("[SERVIDOR] Está enviando demasiado rápido; se descartaron mensajes.");
+    }
+
+    // Una línea publicada en otro nodo del cluster: la reparte el motor a los miembros locales de la sala
+    void deliverRemote(String room, Frame frame, boolean chat) {
+        if (!engine.deliverRemote(room, frame, chat)) {
+            Log.warn("[SERVIDOR] Motor saturado, se descartó una línea del cluster para {}.", room);
+        }
+    }
+
+    // Obtener lista de usuarios conectados, en todo el cluster si lo hay (se rearma solo si alguien entró o salió)
+    public String listUsers() {
+        return engine.listUsers();
+    }
+
+    // Un cliente no vació su cola de salida a tiempo; el cliente se desconecta solo después
+    void slowConsumer(ChatClient client) {
+        metrics.slowConsumers.increment();
+        Log.warn("[SERVIDOR] Cliente lento, desconectando: {}", client.getUsername());
+    }
+
+    // La conexión terminó: el motor da de baja al cliente, avisa a su sala y lo cierra
+    // (se puede llamar más de una vez)
+    public void remove(ChatClient client) {
+        engine.leave(client);
+    }
+
+    // Punto de entrada principal del programa
+    // Uso: java Server [puerto] [--modo=hilos|virtual|pool|nio] [--hilos=N] [--reactores=N]
+    //                  (--hilos=N es el tamaño del pool: cada cliente usa dos hilos, así que atiende N/2 clientes)
+    //                  [--politica=descartar|desconectar] [--cola-mensajes=N] [--cola-bytes=N]
+    //                  [--lote-mensajes=N] [--lote-bytes=N] [--espera-us=N]
+    //                  [--historial=dir] [--historial-mb=N] [--historial-segmentos=N] [--repeticion=N] [--sin-historial]
+    //                  [--limite-mensajes=N] [--limite-rafaga=N] [--limite-bytes=N] [--limite-rafaga-bytes=N]
+    //                  [--limite-comandos=N] [--limite-rafaga-comandos=N] [--limite-accion=descartar|desconectar] [--sin-limite]
+    //                  [--nodo=ID] [--relevo=puerto] [--pares=host:puerto,...] [--relevo-latido-ms=N]
+    //                  [--relevo-vencimiento-s=N] [--relevo-espera-us=N]
+    //                  [--log-nivel=debug|info|warn|error|off] [--log-archivo=ruta] [--log-max-mb=N] [--log-archivos=N]
+    //                  [--metricas=archivo] [--metricas-s=N] [--sin-jmx]
+    public static void main(String[] args) {
+        Options opts = new Options(args);
+        int port = Integer.parseInt(opts.positional(0, "5000")); // Puerto por defecto: 5000
+        String mode = opts.get("modo", "hilos");
+        int threads;
+        switch (mode) {
+            case "hilos":
+            case "virtual":
+                threads = 0;
+                break;
+            case "pool":
+                threads = opts.getInt("hilos", 200);
+                break;
+            case "nio":
+                threads = opts.getInt("reactores", Runtime.getRuntime().availableProcessors());
+                break;
+            default:
+                System.err.println("[SERVIDOR] Modo desconocido: " + mode + " (use hilos, virtual, pool o nio)");
+                return;
+        }
+        OutboundQueue.Policy policy;
+        try {
+            policy = OutboundQueue.Policy.from(opts);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[SERVIDOR] " + e.getMessage());
+            return;
+        }
+        Log.configure(opts);
+        Server server = new Server(port, mode, threads, policy);
+        server.setRateLimits(RateLimiter.Policy.from(opts));
+        try {
+            server.setHistory(MessageLog.open(opts, "historial-tcp"), opts.getInt("repeticion", 20));
+        } catch (IOException e) {
+            Log.error("[SERVIDOR] Sin historial, no se pudo abrir: {}", e.getMessage());
+        }
+        try {
+            server.setCluster(ClusterRelay.open(opts, port, server::deliverRemote));
+        } catch (IOException e) {
+            Log.error("[SERVIDOR] No se pudo abrir el relevo del cluster: {}", e.getMessage());
+            return;
+        }
+        server.metrics().publish(opts, "tcp-" + port, "[SERVIDOR]");
+        server.start(); // Iniciar el servidor
+    }
+
+    // --------------------- CLASE INTERNA: HANDLER DE CADA CLIENTE ---------------------
+    private static class ClientHandler implements Runnable, ChatClient {
+        private final SocketChannel channel; // Canal (bloqueante) específico del cliente
+        private final Server server;         // Referencia al servidor para usar sus métodos
+        // Mensajes pendientes de enviar; la cola usa ReentrantLock y no synchronized, así un hilo
+        // virtual que espera en ella no fija (pin) su hilo portador
+        private final OutboundQueue queue;
+        private volatile String username;    // Nombre de usuario de este cliente
+        private volatile boolean binary;     // Habla el protocolo binario (mandó el saludo)
+        private final RateLimiter limiter;   // null sin límites
+
+        public ClientHandler(SocketChannel channel, Server server) {
+            this.channel = channel;
+            this.server = server;
+            this.queue = new OutboundQueue(server.outboundPolicy());
+            this.limiter = server.newLimiter();
+        }
+
+        public String getUsername() { return username; }
+        public void setUsername(String username) { this.username = username; }
+        public RateLimiter limiter() { return limiter; }
+
+        // Enviar mensaje al cliente: solo se encola, lo escribe writeLoop(). Lo llama el motor,
+        // que no puede esperar: si la cola está llena, descarta o desconecta según la política.
+        public void send(Frame frame) {
+            Frame out = binary ? frame.binary() : frame;
+            if (!queue.offer(out)) {
+                server.slowConsumer(this);
+                abort();
+                return;
+            }
+            server.metrics.sent(out.size());
+        }
+
+        public int queued() { return queue.size(); }
+
+        // Cierre ordenado: el escritor envía lo pendiente y después cierra el socket
+        public void close() {
+            queue.close();
+        }
+
+        // Cierre inmediato (cliente lento o pool lleno): despierta al lector y al escritor
+        void abort() {
+            queue.close();
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+
+        // Hilo escritor: vacía la cola de salida hacia el socket, de a lotes.
+        // Con tráfico liviano cada mensaje sale apenas llega; si el lote anterior fue una
+        // ráfaga (más de un frame), espera hasta lingerNanos a que se sumen más antes de escribir.
+        void writeLoop() {
+            OutboundQueue.Policy policy = server.outboundPolicy();
+            WriteBatch batch = new WriteBatch(policy);
+            boolean burst = false;
+            try {
+                Frame frame;
+                while ((frame = queue.take()) != null) {
+                    batch.add(frame);
+                    batch.fill(queue);
+                    if (burst && policy.lingerNanos > 0) {
+                        long deadline = System.nanoTime() + policy.lingerNanos;
+                        while (!batch.isFull() && (frame = queue.poll(deadline - System.nanoTime())) != null) {
+                            batch.add(frame);
+                            batch.fill(queue);
+                        }
+                    }
+                    burst = batch.size() > 1;
+                    while (!batch.isEmpty()) batch.writeTo(channel);
+                }
+            } catch (IOException | InterruptedException e) {
+                // el cliente ya no recibe
+            } finally {
+                abort();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                InputStream raw = new BufferedInputStream(channel.socket().getInputStream());
+
+                send(server.welcome());
+
+                // El primer byte elige el protocolo: 0 es el saludo binario, cualquier otro es texto
+                raw.mark(1);
+                int first = raw.read();
+                if (first < 0) return;
+                if (first == 0) {
+                    DataInputStream data = new DataInputStream(raw);
+                    BinaryProtocol.readHandshake(data);
+                    send(BINARY_HELLO);
+                    binary = true;
+                    BinaryProtocol.Message message;
+                    while ((message = BinaryProtocol.read(data)) != null) {
+                        if (!server.handleMessage(this, message)) break;
+                    }
+                    return;
+                }
+                raw.reset();
+                readLines(raw);
+            } catch (IOException e) {
+                // caída inesperada del cliente
+            } finally {
+                server.remove(this);   // El motor avisa y cierra después de lo que ya tenía encolado
+            }
+        }
+
+        // ---------------- BUCLE PRINCIPAL: ESCUCHAR MENSAJES ----------------
+        // Las líneas se cortan sobre los bytes leídos (UTF-8, terminadas en '\n' o "\r\n") y se
+        // pasan tal cual a handleLine(), sin armar un String por línea; el buffer se reutiliza.
+        private void readLines(InputStream raw) throws IOException {
+            byte[] buffer = new byte[READ_BUFFER];
+            int filled = 0;
+            while (true) {
+                if (filled == buffer.length) {
+                    if (buffer.length >= MAX_LINE) return;   // Línea demasiado larga sin '\n'
+                    buffer = Arrays.copyOf(buffer, Math.min(MAX_LINE, buffer.length * 2));
+                }
+                int n = raw.read(buffer, filled, buffer.length - filled);
+                if (n < 0) return;
+                int start = 0;
+                int end = filled + n;
+                for (int i = filled; i < end; i++) {
+                    if (buffer[i] != '\n') continue;
+                    int lineEnd = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+                    server.metrics().received(i - start + 1);   // Tal como llegó, con "\n" o "\r\n"
+                    if (!server.handleLine(this, buffer, start, lineEnd)) return;
+                    start = i + 1;
+                }
+                // Conservar el resto (línea incompleta) al principio del buffer
+                filled = end - start;
+                System.arraycopy(buffer, start, buffer, 0, filled);
+            }
+        }
+    }
+}
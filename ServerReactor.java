@@ -0,0 +1,268 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// --------------------- NÚCLEO NIO DEL SERVIDOR TCP ---------------------
+// Un hilo acepta conexiones y las reparte (round-robin) entre N reactores. Cada reactor
+// atiende miles de SocketChannel no bloqueantes con un único Selector, usando los mismos
+// protocolos que el modo "hilos": líneas UTF-8 o, si el cliente saluda, frames binarios
+// (Server.handleLine y Server.handleMessage los pasan al motor del chat).
+final class ServerReactor {
+    private static final int READ_BUFFER = Server.READ_BUFFER;   // Buffer de lectura inicial por conexión
+    private static final int MAX_LINE = Server.MAX_LINE;         // Línea más larga aceptada antes de cortar
+
+    private final Server server;
+    private final int port;
+    private final Reactor[] reactors;
+
+    ServerReactor(Server server, int port, int reactorCount) throws IOException {
+        this.server = server;
+        this.port = port;
+        this.reactors = new Reactor[Math.max(1, reactorCount)];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+        }
+    }
+
+    // Arranca los reactores y queda aceptando conexiones en el hilo actual
+    void run() throws IOException {
+        for (Reactor r : reactors) r.thread.start();
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            Log.info("[SERVIDOR] Escuchando conexiones con {} reactor(es)...", reactors.length);
+            int next = 0;
+            while (true) {
+                SocketChannel channel = serverChannel.accept(); // Bloquea hasta la próxima conexión
+                Log.info("[SERVIDOR] Cliente conectado: {}", channel.getRemoteAddress());
+                server.metrics().connections.increment();
+                reactors[next].accept(channel);
+                next = (next + 1) % reactors.length;
+            }
+        }
+    }
+
+    // --------------------- REACTOR: UN SELECTOR Y SU HILO ---------------------
+    private final class Reactor implements Runnable {
+        private final Selector selector = Selector.open();
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // Trabajo pedido desde otros hilos
+        private final Thread thread;
+
+        Reactor(int id) throws IOException {
+            this.thread = new Thread(this, "reactor-" + id);
+        }
+
+        // Ejecutar una tarea en el hilo del reactor (los SelectionKey solo se tocan desde ahí)
+        void execute(Runnable task) {
+            if (Thread.currentThread() == thread) {
+                task.run();
+            } else {
+                tasks.add(task);
+                selector.wakeup();
+            }
+        }
+
+        void accept(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    channel.configureBlocking(false);
+                    NioClient client = new NioClient(this, channel);
+                    client.key = channel.register(selector, SelectionKey.OP_READ, client);
+                    client.send(server.welcome());
+                } catch (IOException e) {
+                    try { channel.close(); } catch (IOException ignored) {}
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) task.run();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioClient client = (NioClient) key.attachment();
+                        if (key.isValid() && key.isReadable()) client.onReadable();
+                        if (key.isValid() && key.isWritable()) client.flush();
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    Log.error("[SERVIDOR] Error en {}: {}", thread.getName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    // --------------------- CLIENTE NO BLOQUEANTE ---------------------
+    private final class NioClient implements ChatClient {
+        private final Reactor reactor;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);                  // Bytes leídos sin procesar
+        private final OutboundQueue outbox = new OutboundQueue(server.outboundPolicy()); // Líneas pendientes
+        private final WriteBatch batch = new WriteBatch(server.outboundPolicy());   // Lote a medio escribir
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private volatile boolean closing;                                         // Cerrar al vaciar outbox
+        private boolean reading = true;                                           // false: pidió irse, no leer más
+        private volatile String username;
+        private boolean protocolKnown;                                            // Ya llegó el primer byte
+        private volatile boolean binary;                                          // Mandó el saludo binario
+        private final RateLimiter limiter = server.newLimiter();                 // null sin límites
+
+        NioClient(Reactor reactor, SocketChannel channel) {
+            this.reactor = reactor;
+            this.channel = channel;
+        }
+
+        public String getUsername() { return username; }
+        public void setUsername(String username) { this.username = username; }
+        public RateLimiter limiter() { return limiter; }
+
+        // Puede llamarse desde cualquier hilo: encola y pide al reactor que escriba.
+        public void send(Frame frame) {
+            if (closing) return;
+            Frame out = binary ? frame.binary() : frame;
+            if (!outbox.offer(out)) {
+                server.slowConsumer(this);
+                reactor.execute(this::destroy);
+                return;
+            }
+            server.metrics().sent(out.size());
+            scheduleFlush();
+        }
+
+        public int queued() { return outbox.size(); }
+
+        public void close() {
+            closing = true;
+            scheduleFlush();
+        }
+
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                reactor.execute(this::flush);
+            }
+        }
+
+        // Leer lo disponible y procesar cada línea (o frame binario) completa
+        void onReadable() {
+            try {
+                if (!in.hasRemaining()) {
+                    int max = binary ? BinaryProtocol.HEADER + BinaryProtocol.MAX_PAYLOAD : MAX_LINE;
+                    if (in.capacity() >= max) { // Línea demasiado larga sin '\n'
+                        destroy();
+                        return;
+                    }
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.min(max, in.capacity() * 2));
+                    in.flip();
+                    bigger.put(in);
+                    in = bigger;
+                }
+                int n = channel.read(in);
+                if (n < 0) {
+                    destroy();
+                    return;
+                }
+                if (!protocolKnown && !detectProtocol()) return;
+                if (binary) {
+                    readFrames();
+                } else {
+                    readLines();
+                }
+                if ((!reading || closing) && key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            } catch (IOException e) {
+                destroy();
+            }
+        }
+
+        // El primer byte elige el protocolo: 0 es el saludo binario, cualquier otro es texto.
+        // false mientras falten bytes del saludo.
+        private boolean detectProtocol() throws IOException {
+            if (in.position() == 0) return false;
+            if (in.get(0) == 0) {
+                if (in.position() < BinaryProtocol.HANDSHAKE.length) return false;
+                BinaryProtocol.checkHandshake(in.array(), 1);
+                in.flip();
+                in.position(BinaryProtocol.HANDSHAKE.length);
+                in.compact();
+                send(Server.BINARY_HELLO);   // Todavía sin reencuadrar: ya es un frame binario
+                binary = true;
+            }
+            protocolKnown = true;
+            return true;
+        }
+
+        private void readLines() {
+            byte[] data = in.array();
+            int start = 0;
+            int end = in.position();
+            for (int i = 0; i < end && reading && !closing; i++) {
+                if (data[i] != '\n') continue;
+                int lineEnd = i > start && data[i - 1] == '\r' ? i - 1 : i;
+                server.metrics().received(i - start + 1);   // Tal como llegó, con "\n" o "\r\n"
+                if (!server.handleLine(this, data, start, lineEnd)) stopReading();   // Sin copiar la línea
+                start = i + 1;
+            }
+            // Conservar el resto (línea incompleta) al principio del buffer
+            in.position(start);
+            in.limit(end);
+            in.compact();
+        }
+
+        private void readFrames() throws IOException {
+            in.flip();
+            BinaryProtocol.Message message;
+            while (reading && !closing && (message = BinaryProtocol.decode(in)) != null) {
+                if (!server.handleMessage(this, message)) stopReading();
+            }
+            in.compact();                    // Conservar el frame incompleto
+        }
+
+        // Pidió irse (o superó el límite): no leer más y pedirle al motor la baja. El motor
+        // cierra la conexión después de encolar la despedida, así que no se marca closing acá.
+        private void stopReading() {
+            reading = false;
+            server.remove(this);
+        }
+
+        // Escribir todo lo posible en lotes (una escritura gathering por lote); si el socket
+        // se llena, esperar OP_WRITE. Todo lo que se encoló antes de que el reactor llegue
+        // hasta aquí sale junto, así que bajo ráfaga se coalescen solas las escrituras.
+        void flush() {
+            flushScheduled.set(false);
+            if (!key.isValid()) return;
+            try {
+                while (true) {
+                    batch.fill(outbox);
+                    if (batch.isEmpty()) break;
+                    batch.writeTo(channel);
+                    if (!batch.isEmpty()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (closing) destroy();
+            } catch (IOException e) {
+                destroy();
+            }
+        }
+
+        private void destroy() {
+            closing = true;
+            outbox.close();
+            key.cancel();
+            try { channel.close(); } catch (IOException ignored) {}
+            server.remove(this);
+        }
+    }
+}
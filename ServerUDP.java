@@ -1,73 +1,425 @@
-import java.net.*;
-import java.util.*;
-
-public class ServerUDP {
-    private static final int PORT = 5001;
-    // Mapeo de clientes: dirección -> nombre de usuario
-    private static final Map<SocketAddress, String> clients = new HashMap<>();
-
-    public static void main(String[] args) {
-        try (DatagramSocket socket = new DatagramSocket(PORT)) {
-            System.out.println("[SERVIDOR-UDP] Escuchando en el puerto " + PORT + "...");
-
-            byte[] buffer = new byte[1024];
-
-            while (true) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet); // recibe mensaje
-
-                String message = new String(packet.getData(), 0, packet.getLength(), "UTF-8").trim();
-                SocketAddress clientAddr = packet.getSocketAddress();
-
-                // Si el cliente no está registrado, el primer mensaje es el nombre
-                if (!clients.containsKey(clientAddr)) {
-                    clients.put(clientAddr, message);
-                    System.out.println("[SERVIDOR-UDP] Nuevo usuario: " + message + " desde " + clientAddr);
-                    send(socket, "[SERVIDOR] Bienvenido " + message + "!", clientAddr);
-                    continue;
-                }
-
-                String user = clients.get(clientAddr);
-
-                // ---- COMANDOS ----
-                if (message.equalsIgnoreCase("/listar")) {
-                    String lista = String.join(", ", clients.values());
-                    send(socket, "[SERVIDOR] Usuarios conectados: " + lista, clientAddr);
-                    continue;
-                }
-
-                if (message.equalsIgnoreCase("/quitar")) {
-                    send(socket, "[SERVIDOR] Desconectado. ¡Hasta luego!", clientAddr);
-                    System.out.println("[SERVIDOR-UDP] " + user + " se ha desconectado.");
-                    clients.remove(clientAddr);
-                    continue;
-                }
-
-                // ---- MENSAJE NORMAL ----
-                String fullMsg = "[" + user + "] " + message;
-                System.out.println(fullMsg);
-                broadcast(socket, fullMsg, clientAddr);
-            }
-        } catch (Exception e) {
-            System.err.println("[SERVIDOR-UDP] Error: " + e.getMessage());
-        }
-    }
-
-    // Enviar mensaje a un cliente
-    private static void send(DatagramSocket socket, String msg, SocketAddress addr) throws Exception {
-        byte[] data = msg.getBytes("UTF-8");
-        DatagramPacket packet = new DatagramPacket(data, data.length, addr);
-        socket.send(packet);
-    }
-
-    // Reenviar mensaje a todos menos al emisor
-    private static void broadcast(DatagramSocket socket, String msg, SocketAddress exclude) throws Exception {
-        byte[] data = msg.getBytes("UTF-8");
-        for (SocketAddress addr : clients.keySet()) {
-            if (!addr.equals(exclude)) {
-                DatagramPacket packet = new DatagramPacket(data, data.length, addr);
-                socket.send(packet);
-            }
-        }
-    }
-}
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class ServerUDP {
+    private static final int MAX_DATAGRAM = 65507;   // Carga útil máxima de un datagrama UDP
+    // Datagramas que se atienden por vuelta del receptor antes de volver a esperar (y de mandar
+    // lo que se juntó en la tanda)
+    private static final int RECEIVE_BATCH = 64;
+    // Los comandos del chat y "/latido", que ClientUDP manda cada tanto y solo cuenta como actividad
+    private static final byte HEARTBEAT = -1;
+    private static final CommandTable COMMANDS = CommandTable.chat().register("latido", HEARTBEAT, 0);
+    private static final long EXPIRY_TICK_MS = 100;
+    private static final int ENGINE_QUEUE = 64 * 1024;    // Comandos en espera del motor
+    // Registro, salas e historial: los atiende el motor en un solo hilo, igual que en TCP; los
+    // receptores (y trabajadores) solo reconocen el comando y se lo pasan
+    private static final Metrics metrics = new Metrics();
+    private static final ChatEngine engine = new ChatEngine("[SERVIDOR-UDP]", ENGINE_QUEUE, metrics);
+    // Sesiones de los clientes que usan entrega fiable (ClientUDP --fiable); a los demás se les
+    // sigue hablando con datagramas sueltos. null hasta que main() abre el canal.
+    private static volatile ReliableEndpoint reliable;
+    // Vencimiento de los clientes que dejan de hablar (se colgaron o perdieron la red y nunca
+    // mandan /quitar): cualquier datagrama cuenta como actividad. También vigila las sesiones
+    // fiables desde que se abren, así quien nunca se registra no ocupa memoria para siempre;
+    // con --inactividad-s=0 (idleUsers en false) vence solo a esos. null hasta que arranca main().
+    private static volatile TimingWheel<SocketAddress> idle;
+    private static boolean idleUsers = true;
+    private static final int LOGIN_SECONDS = 30;      // Plazo para registrarse con --inactividad-s=0
+    // Límites de tráfico por cliente registrado (sin política = sin límites) y a quién se limitó
+    private static RateLimiter.Policy limits;
+    private static final ConcurrentHashMap<SocketAddress, RateLimiter> limiters = new ConcurrentHashMap<>();
+    private static final RateLimiter.Monitor limited = new RateLimiter.Monitor("[SERVIDOR-UDP]");
+    // SO_RCVBUF de cada canal: con el de fábrica (~200 KB) una ráfaga de ACKs o de mensajes
+    // desborda el socket mientras el receptor está ocupado y el kernel descarta datagramas
+    private static int receiveBuffer = 4 * 1024 * 1024;
+
+    // Uso: java ServerUDP [puerto] [--receptores=N] [--reparto=auto|reuseport|trabajadores] [--cola-trabajador=N]
+    //                     [--buffer-kb=N] [--inactividad-s=N (0 = nunca, salvo sin registrarse)] [--ventana=N] [--pendientes=N] [--mtu=N] [--perdida=0..1] [--rto-min-ms=N] [--rto-max-ms=N] [--reintentos=N]
+    //                     [--historial=dir] [--historial-mb=N] [--historial-segmentos=N] [--repeticion=N] [--sin-historial]
+    //                     [--limite-mensajes=N] [--limite-rafaga=N] [--limite-bytes=N] [--limite-rafaga-bytes=N]
+    //                     [--limite-comandos=N] [--limite-rafaga-comandos=N] [--limite-accion=descartar|desconectar] [--sin-limite]
+    //                     [--log-nivel=debug|info|warn|error|off] [--log-archivo=ruta] [--log-max-mb=N] [--log-archivos=N]
+    //                     [--metricas=archivo] [--metricas-s=N] [--sin-jmx]
+    public static void main(String[] args) {
+        Options opts = new Options(args);
+        Log.configure(opts);
+        int port = Integer.parseInt(opts.positional(0, "5001"));
+        int receivers = opts.getInt("receptores", Runtime.getRuntime().availableProcessors());
+        String mode = opts.get("reparto", "auto");
+        ReliableEndpoint.Config reliableConfig = ReliableEndpoint.Config.from(opts);
+        receiveBuffer = opts.getInt("buffer-kb", 4096) * 1024;
+        int idleSeconds = opts.getInt("inactividad-s", 30);
+        idleUsers = idleSeconds > 0;
+        idle = new TimingWheel<>(TimeUnit.SECONDS.toNanos(idleUsers ? idleSeconds : LOGIN_SECONDS),
+                TimeUnit.MILLISECONDS.toNanos(EXPIRY_TICK_MS));
+        limits = RateLimiter.Policy.from(opts);
+        Log.info("[SERVIDOR-UDP] Límite por cliente: {}", limits != null ? limits : "ninguno");
+        limited.start(10_000);
+        metrics.gauge("limitados", limited::total);
+        metrics.gauge("retransmisiones", () -> {
+            ReliableEndpoint r = reliable;
+            return r != null ? r.retransmissions() : 0;
+        });
+        metrics.gauge("salida_descartados", () -> {
+            ReliableEndpoint r = reliable;
+            return r != null ? r.discarded() : 0;
+        });
+        metrics.gauge("vencimiento", () -> {
+            TimingWheel<SocketAddress> wheel = idle;
+            return wheel != null ? wheel.size() : 0;
+        });
+        metrics.publish(opts, "udp-" + port, "[SERVIDOR-UDP]");
+        try {
+            engine.setHistory(MessageLog.open(opts, "historial-udp"), opts.getInt("repeticion", 20));
+        } catch (IOException e) {
+            Log.error("[SERVIDOR-UDP] Sin historial, no se pudo abrir: {}", e.getMessage());
+        }
+        // Lo que el motor responde a una tanda de comandos sale empaquetado, como las respuestas
+        // de una tanda del receptor (ver flushBatch())
+        engine.setBatchHooks(() -> {
+            ReliableEndpoint r = reliable;
+            if (r != null) r.beginBatch();
+        }, () -> {
+            ReliableEndpoint r = reliable;
+            if (r != null) flush(r);
+        });
+        engine.start();
+        try {
+            if (receivers > 1 && !mode.equals("trabajadores") && reusePortSupported()) {
+                startReusePort(port, receivers, reliableConfig);
+            } else {
+                startWorkers(port, receivers, opts.getInt("cola-trabajador", 4096), reliableConfig);
+            }
+        } catch (Exception e) {
+            Log.error("[SERVIDOR-UDP] Error: {}", e.getMessage());
+        }
+    }
+
+    private static boolean reusePortSupported() throws IOException {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    // ---------------- SO_REUSEPORT: N sockets en el mismo puerto ----------------
+    // El kernel reparte los datagramas entre los sockets según la dirección de origen, así que
+    // cada cliente cae siempre en el mismo receptor y sus mensajes no se desordenan.
+    private static void startReusePort(int port, int receivers, ReliableEndpoint.Config reliableConfig) throws Exception {
+        Log.info("[SERVIDOR-UDP] Escuchando en el puerto {} con {} receptores (SO_REUSEPORT)...", port, receivers);
+        Thread[] threads = new Thread[receivers];
+        for (int i = 0; i < receivers; i++) {
+            DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+            channel.bind(new InetSocketAddress(port));
+            if (i == 0) {                                         // Retransmite y avisa por el primer socket
+                startReliable(channel, reliableConfig);
+                startExpiry(channel);
+            }
+            threads[i] = Thread.ofPlatform().name("udp-receptor-" + i).start(() -> {
+                try (channel) {
+                    receiveLoop(channel, null);
+                } catch (IOException e) {
+                    Log.error("[SERVIDOR-UDP] Error en {}: {}", Thread.currentThread().getName(), e.getMessage());
+                }
+            });
+        }
+        for (Thread t : threads) t.join();
+    }
+
+    // ---------------- UN RECEPTOR + TRABAJADORES ----------------
+    // Un hilo solo recibe y reparte cada datagrama al trabajador que le toca a su dirección
+    // (hash % N): un mismo cliente siempre lo atiende el mismo trabajador, en orden.
+    private static void startWorkers(int port, int workers, int queueSize, ReliableEndpoint.Config reliableConfig)
+            throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+            channel.bind(new InetSocketAddress(port));
+            startReliable(channel, reliableConfig);
+            startExpiry(channel);
+            if (workers <= 1) {
+                Log.info("[SERVIDOR-UDP] Escuchando en el puerto {}...", port);
+                receiveLoop(channel, null);
+                return;
+            }
+            Log.info("[SERVIDOR-UDP] Escuchando en el puerto {} con {} trabajadores...", port, workers);
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            BlockingQueue<Datagram>[] queues = new BlockingQueue[workers];
+            for (int i = 0; i < workers; i++) {
+                BlockingQueue<Datagram> queue = queues[i] = new ArrayBlockingQueue<>(queueSize);
+                Thread.ofPlatform().name("udp-trabajador-" + i).daemon().start(() -> workLoop(channel, queue));
+            }
+            receiveLoop(channel, queues);
+        }
+    }
+
+    // Datagrama copiado para pasarlo del receptor a un trabajador
+    private static final class Datagram {
+        final SocketAddress from;
+        final byte[] data;
+
+        Datagram(SocketAddress from, byte[] data) {
+            this.from = from;
+            this.data = data;
+        }
+    }
+
+    // Recibir datagramas con un buffer propio del hilo. Sin colas se atienden en el mismo hilo;
+    // con colas se copian y se entregan al trabajador de su dirección.
+    // Recepción en lotes: Java no expone recvmmsg, así que el canal queda no bloqueante y en
+    // cada despertar se vacía lo que ya está en el socket (hasta RECEIVE_BATCH) antes de volver
+    // al Selector. Lo que se responde a esa tanda sale empaquetado al final (ver flushBatch()).
+    private static void receiveLoop(DatagramChannel channel, BlockingQueue<Datagram>[] queues) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM);
+        channel.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            channel.register(selector, SelectionKey.OP_READ);
+            while (true) {
+                selector.select();
+                selector.selectedKeys().clear();
+                ReliableEndpoint r = queues == null ? reliable : null;
+                if (r != null) r.beginBatch();
+                for (int n = 0; n < RECEIVE_BATCH; n++) {
+                    buffer.clear();
+                    SocketAddress from = channel.receive(buffer);
+                    if (from == null) break;                  // El socket quedó vacío
+                    buffer.flip();
+                    if (queues == null) {
+                        try {
+                            dispatch(channel, buffer, from);
+                        } catch (IOException e) {
+                            Log.warn("[SERVIDOR-UDP] Error atendiendo a {}: {}", from, e.getMessage());
+                        }
+                        continue;
+                    }
+                    byte[] data = new byte[buffer.remaining()];
+                    buffer.get(data);
+                    // Si el trabajador está saturado se descarta, como haría la red con un datagrama
+                    if (!queues[(from.hashCode() & 0x7fffffff) % queues.length].offer(new Datagram(from, data))) {
+                        Log.debug("[SERVIDOR-UDP] Trabajador saturado, datagrama de {} descartado", from);
+                    }
+                }
+                if (r != null) flush(r);
+            }
+        }
+    }
+
+    // El trabajador toma todo lo que tiene en cola (hasta RECEIVE_BATCH) como una tanda
+    private static void workLoop(DatagramChannel channel, BlockingQueue<Datagram> queue) {
+        List<Datagram> pending = new ArrayList<>(RECEIVE_BATCH);
+        while (true) {
+            try {
+                pending.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(pending, RECEIVE_BATCH - 1);
+            ReliableEndpoint r = reliable;
+            if (r != null) r.beginBatch();
+            for (Datagram d : pending) {
+                try {
+                    dispatch(channel, ByteBuffer.wrap(d.data), d.from);
+                } catch (IOException e) {
+                    Log.warn("[SERVIDOR-UDP] Error atendiendo a {}: {}", d.from, e.getMessage());
+                }
+            }
+            pending.clear();
+            if (r != null) flush(r);
+        }
+    }
+
+    private static void flush(ReliableEndpoint r) {
+        try {
+            r.flushBatch();
+        } catch (IOException e) {
+            Log.warn("[SERVIDOR-UDP] Error enviando la tanda: {}", e.getMessage());
+        }
+    }
+
+    // ---------------- ENTREGA FIABLE ----------------
+    private static void startReliable(DatagramChannel channel, ReliableEndpoint.Config config) {
+        reliable = new ReliableEndpoint(channel, config, new ReliableEndpoint.Listener() {
+            public void deliver(SocketAddress from, ByteBuffer message) {
+                handle(channel, message, from);
+            }
+
+            public void lost(SocketAddress peer) {
+                Log.info("[SERVIDOR-UDP] {} no responde, desconectando.", peer);
+                engine.leave(new UdpSession(channel, peer));
+            }
+
+            // Aún sin registrarse: si nunca lo hace, la rueda lo vence y leave() cierra la sesión
+            public void opened(SocketAddress peer) {
+                TimingWheel<SocketAddress> wheel = idle;
+                if (wheel != null) wheel.add(peer);
+            }
+        });
+    }
+
+    // ---------------- VENCIMIENTO POR INACTIVIDAD ----------------
+    // Cada EXPIRY_TICK_MS la rueda devuelve los clientes cuyo plazo venció en ese tick, sin
+    // recorrer a todos los conectados
+    private static void startExpiry(DatagramChannel channel) {
+        TimingWheel<SocketAddress> wheel = idle;
+        if (wheel == null) return;
+        Thread.ofVirtual().name("udp-expiracion").start(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(EXPIRY_TICK_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (SocketAddress addr : wheel.advance(System.nanoTime())) {
+                    Log.info("[SERVIDOR-UDP] {} sin actividad, desconectando.", addr);
+                    engine.leave(new UdpSession(channel, addr));
+                }
+            }
+        });
+    }
+
+    // Un datagrama de la capa fiable (ACK o mensaje numerado) lo procesa ReliableEndpoint, que
+    // llama a handle() con cada mensaje en orden; el texto suelto va directo a handle()
+    private static void dispatch(DatagramChannel channel, ByteBuffer data, SocketAddress from) throws IOException {
+        TimingWheel<SocketAddress> wheel = idle;
+        if (wheel != null) wheel.touch(from);   // Cualquier datagrama, también un ACK, es señal de vida
+        ReliableEndpoint r = reliable;
+        if (r == null || !r.receive(from, data)) handle(channel, data, from);
+    }
+
+    // Procesar un datagrama recibido de clientAddr: se reconoce el comando igual que en TCP,
+    // se aplica el límite de tráfico y se pasa al motor, que registra, cambia de sala y reparte.
+    // Lo pueden llamar varios hilos a la vez, pero nunca dos para la misma dirección.
+    // El comando se reconoce sobre los bytes del datagrama; solo se decodifica lo que se usa.
+    static void handle(DatagramChannel channel, ByteBuffer data, SocketAddress clientAddr) {
+        metrics.received(data.remaining());
+        byte[] bytes = data.array();
+        int offset = data.arrayOffset() + data.position();
+        int start = CommandTable.trimStart(bytes, offset, offset + data.remaining());
+        int end = CommandTable.trimEnd(bytes, start, offset + data.remaining());
+        byte type = COMMANDS.typeOf(bytes, start, end);
+
+        if (type == HEARTBEAT) return;   // Ya contó como actividad en dispatch()
+
+        UdpSession session = new UdpSession(channel, clientAddr);
+
+        // ---- LÍMITE DE TRÁFICO: solo para registrados; comandos y mensajes tienen cupos aparte ----
+        RateLimiter limiter = limiters.get(clientAddr);
+        if (limiter != null && type != BinaryProtocol.QUIT) {   // Irse siempre se puede
+            RateLimiter.Verdict verdict = type == BinaryProtocol.MESSAGE ? limiter.message(end - start) : limiter.command();
+            if (verdict != RateLimiter.Verdict.OK) {
+                String user = engine.nameOf(session);
+                limited.record(user != null ? user : clientAddr.toString());
+                if (verdict == RateLimiter.Verdict.DISCONNECT) {
+                    session.send("[SERVIDOR] Desconectado por enviar demasiado rápido.");
+                    Log.warn("[SERVIDOR-UDP] {} superó el límite de tráfico, desconectando.", user);
+                    engine.leave(session);
+                } else if (limiter.shouldNotify()) {
+                    session.send("[SERVIDOR] Está enviando demasiado rápido; se descartaron mensajes.");
+                }
+                return;
+            }
+        }
+
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug("Recibido de {}: '{}'", clientAddr, CommandTable.text(bytes, start, end));
+        }
+        // Sin límite (no registrado) hay que ver si ya tiene nombre; con límite seguro que sí
+        String line = limiter != null || engine.nameOf(session) != null ? null : CommandTable.text(bytes, start, end);
+        String arg = type == BinaryProtocol.MESSAGE && line != null ? line : COMMANDS.argOf(type, bytes, start, end);
+        if (!engine.submit(session, type, arg, line)) {
+            Log.warn("[SERVIDOR-UDP] Motor saturado, desconectando a {}.", clientAddr);
+            session.send("[SERVIDOR] Servidor saturado, desconectando.");
+            engine.leave(session);
+        }
+    }
+
+    // --------------------- CLIENTE UDP PARA EL MOTOR ---------------------
+    // Una dirección vista como conexión: el motor la registra, la pone en salas y le manda
+    // líneas igual que a un cliente TCP. Se crea una por datagrama; dos sesiones de la misma
+    // dirección son iguales, así que el registro y las salas las tratan como la misma.
+    private static final class UdpSession implements ChatClient {
+        private final DatagramChannel channel;
+        private final SocketAddress addr;
+
+        UdpSession(DatagramChannel channel, SocketAddress addr) {
+            this.channel = channel;
+            this.addr = addr;
+        }
+
+        public String getUsername() {
+            return engine.nameOf(this);
+        }
+
+        // El motor aceptó el nombre: desde acá la dirección tiene límite de tráfico y vence
+        // (salvo con --inactividad-s=0, que la saca de la rueda donde la puso la sesión fiable)
+        public void setUsername(String username) {
+            RateLimiter.Policy p = limits;
+            if (p != null) limiters.put(addr, new RateLimiter(p));
+            TimingWheel<SocketAddress> wheel = idle;
+            if (wheel == null) return;
+            if (idleUsers) {
+                wheel.add(addr);
+            } else {
+                wheel.remove(addr);
+            }
+        }
+
+        public RateLimiter limiter() {
+            return limiters.get(addr);
+        }
+
+        // Numerado si el cliente usa entrega fiable (todas las sesiones comparten los mismos
+        // bytes); si no, un datagrama suelto con la línea sin su '\n'
+        public void send(Frame frame) {
+            try {
+                ReliableEndpoint r = reliable;
+                if (r != null && r.has(addr)) {
+                    byte[] datagram = frame.datagram();
+                    r.send(addr, datagram);
+                    metrics.sent(datagram.length);
+                } else {
+                    ByteBuffer line = frame.buffer();
+                    line.limit(line.limit() - 1);
+                    int size = line.remaining();
+                    if (r != null) {
+                        r.sendDatagram(line, addr);   // Nunca espera al socket (lo llama el motor)
+                    } else {
+                        channel.send(line, addr);
+                    }
+                    metrics.sent(size);
+                }
+            } catch (IOException e) {
+                Log.warn("[SERVIDOR-UDP] Error enviando a {}: {}", addr, e.getMessage());
+            }
+        }
+
+        // Dejar de contar a la dirección; la sesión fiable se cierra cuando confirme lo pendiente
+        public void close() {
+            limiters.remove(addr);
+            TimingWheel<SocketAddress> wheel = idle;
+            if (wheel != null) wheel.remove(addr);
+            ReliableEndpoint r = reliable;
+            if (r != null) r.close(addr);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof UdpSession && ((UdpSession) o).addr.equals(addr);
+        }
+
+        @Override
+        public int hashCode() {
+            return addr.hashCode();
+        }
+    }
+}
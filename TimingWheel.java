@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// --------------------- RUEDA DE TIEMPOS PARA VENCIMIENTOS ---------------------
+// Rueda de tiempos con hash (Varghese y Lauck): un arreglo de casilleros, uno por tick, que
+// cubre al menos un período de inactividad. Cada clave vigilada está en el casillero del tick
+// en que vencería; en cada tick solo se revisa ese casillero, así que con 100k sesiones el
+// costo por tick depende de cuántas vencen en él y no de cuántas hay.
+//
+// touch() no mueve nada: solo anota la hora de la última actividad (una escritura volátil).
+// Cuando el casillero de una clave llega, si tuvo actividad desde que se agendó se la vuelve a
+// agendar para su nuevo vencimiento; si no, vence. Una sesión activa se reubica como máximo
+// una vez por período, no una vez por datagrama.
+final class TimingWheel<K> {
+
+    private static final class Entry<K> {
+        final K key;
+        volatile long lastSeen;       // Última actividad (System.nanoTime())
+        long deadlineTick;            // Tick en que vence si no hubo actividad (solo con el lock)
+        volatile boolean removed;
+
+        Entry(K key, long now) {
+            this.key = key;
+            this.lastSeen = now;
+        }
+    }
+
+    private final long timeoutNanos;
+    private final long tickNanos;
+    private final long origin = System.nanoTime();
+    private final List<Entry<K>>[] slots;
+    private final int mask;
+    private final ConcurrentHashMap<K, Entry<K>> entries = new ConcurrentHashMap<>();
+    private long currentTick;         // Último tick ya procesado (solo con el lock)
+
+    // Vencer las claves sin actividad durante timeoutNanos, con una resolución de tickNanos
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(long timeoutNanos, long tickNanos) {
+        this.timeoutNanos = timeoutNanos;
+        this.tickNanos = tickNanos;
+        long ticks = Math.max(2, timeoutNanos / tickNanos + 1);
+        int size = Integer.highestOneBit((int) Math.min(1 << 20, ticks - 1)) << 1;   // Potencia de 2
+        slots = new List[size];
+        for (int i = 0; i < size; i++) slots[i] = new ArrayList<>();
+        mask = size - 1;
+        currentTick = tickOf(origin);
+    }
+
+    // Empezar a vigilar una clave (si ya estaba, cuenta como actividad)
+    void add(K key) {
+        long now = System.nanoTime();
+        Entry<K> entry = new Entry<>(key, now);
+        Entry<K> old = entries.putIfAbsent(key, entry);
+        if (old != null) {
+            old.lastSeen = now;
+            return;
+        }
+        synchronized (this) {
+            schedule(entry, tickOf(now + timeoutNanos));
+        }
+    }
+
+    // Hubo actividad de la clave; no hace nada si no se la vigila
+    void touch(K key) {
+        Entry<K> entry = entries.get(key);
+        if (entry != null) entry.lastSeen = System.nanoTime();
+    }
+
+    // Dejar de vigilar; la entrada se descarta cuando llega su casillero
+    void remove(K key) {
+        Entry<K> entry = entries.remove(key);
+        if (entry != null) entry.removed = true;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    // Procesar los ticks transcurridos hasta now y devolver las claves que vencieron (ya quitadas)
+    synchronized List<K> advance(long now) {
+        List<K> expired = new ArrayList<>();
+        long target = tickOf(now);
+        while (currentTick < target) {
+            currentTick++;
+            int index = (int) (currentTick & mask);
+            List<Entry<K>> slot = slots[index];
+            if (slot.isEmpty()) continue;
+            slots[index] = new ArrayList<>();
+            for (Entry<K> entry : slot) {
+                if (entry.removed) continue;
+                long deadline = Math.max(entry.deadlineTick, tickOf(entry.lastSeen + timeoutNanos));
+                if (deadline > currentTick) {
+                    schedule(entry, deadline);            // Tuvo actividad, o le falta otra vuelta
+                } else if (entries.remove(entry.key, entry)) {
+                    expired.add(entry.key);
+                }
+            }
+        }
+        return expired;
+    }
+
+    private void schedule(Entry<K> entry, long deadline) {
+        entry.deadlineTick = Math.max(deadline, currentTick + 1);
+        slots[(int) (entry.deadlineTick & mask)].add(entry);
+    }
+
+    private long tickOf(long nanos) {
+        return (nanos - origin) / tickNanos;
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// --------------------- REGISTRO DE USUARIOS ---------------------
+// Registro concurrente de usuarios con login: conexión -> nombre y nombre -> conexión, ambos
+// en O(1). No admite nombres repetidos (sin distinguir mayúsculas). La lista de /listar se
+// guarda junto con la versión de la membresía y solo se rearma cuando alguien entra o sale.
+// C es el tipo de conexión (cliente TCP, dirección UDP).
+final class UserRegistry<C> {
+    private final ConcurrentHashMap<C, String> byConnection = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, C> byName = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();   // Cambia en cada alta o baja
+    private volatile Roster roster = new Roster(-1, "");
+
+    // Lista ya armada para una versión de la membresía
+    private static final class Roster {
+        final long version;
+        final String text;
+
+        Roster(long version, String text) {
+            this.version = version;
+            this.text = text;
+        }
+    }
+
+    // Registrar el nombre para la conexión. false si el nombre ya lo usa otra conexión.
+    boolean claim(C connection, String name) {
+        if (byName.putIfAbsent(key(name), connection) != null) return false;
+        byConnection.put(connection, name);
+        version.incrementAndGet();
+        return true;
+    }
+
+    // Dar de baja la conexión. Devuelve el nombre que tenía (null si no estaba registrada).
+    String release(C connection) {
+        String name = byConnection.remove(connection);
+        if (name != null) {
+            byName.remove(key(name), connection);
+            version.incrementAndGet();
+        }
+        return name;
+    }
+
+    String nameOf(C connection) {
+        return byConnection.get(connection);
+    }
+
+    C find(String name) {
+        return byName.get(key(name));
+    }
+
+    int size() {
+        return byConnection.size();
+    }
+
+    // Recorrer las conexiones registradas (vista del momento, sin bloquear altas ni bajas)
+    void forEach(Consumer<? super C> action) {
+        byConnection.keySet().forEach(action);
+    }
+
+    // Usuarios conectados, "ana, beto, carla"; se rearma solo si cambió la membresía
+    String roster() {
+        Roster current = roster;
+        long v = version.get();
+        if (current.version == v) return current.text;
+
+        // Si alguien entra o sale mientras se arma, la versión guardada queda vieja y la
+        // próxima llamada vuelve a armarla: nunca se sirve una lista más nueva que su versión
+        List<String> names = new ArrayList<>(byConnection.values());
+        names.sort(String.CASE_INSENSITIVE_ORDER);
+        String text = String.join(", ", names);
+        roster = new Roster(v, text);
+        return text;
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase();
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+// --------------------- LOTE DE ESCRITURA ---------------------
+// Junta varios frames pendientes de un cliente y los escribe con una sola llamada
+// "gathering" (writev): bajo ráfaga salen muchos mensajes por syscall y por segmento TCP.
+final class WriteBatch {
+    private final ByteBuffer[] buffers;
+    private final int maxBytes;
+    private int start;              // Primer buffer con bytes sin escribir
+    private int count;              // Buffers cargados
+    private long bytes;             // Bytes cargados en el lote
+
+    WriteBatch(OutboundQueue.Policy policy) {
+        this.buffers = new ByteBuffer[Math.max(1, policy.batchMessages)];
+        this.maxBytes = policy.batchBytes;
+    }
+
+    boolean isEmpty() {
+        return start == count;
+    }
+
+    boolean isFull() {
+        return count == buffers.length || bytes >= maxBytes;
+    }
+
+    // Cantidad de frames que entraron en el lote desde que quedó vacío
+    int size() {
+        return count;
+    }
+
+    void add(Frame frame) {
+        buffers[count++] = frame.buffer();
+        bytes += frame.size();
+    }
+
+    // Completar el lote con lo que ya esté en la cola, sin esperar
+    void fill(OutboundQueue queue) {
+        Frame frame;
+        while (!isFull() && (frame = queue.poll()) != null) {
+            add(frame);
+        }
+    }
+
+    // Una escritura gathering; lo que no entró queda al principio del lote para la próxima
+    void writeTo(GatheringByteChannel channel) throws IOException {
+        channel.write(buffers, start, count - start);
+        while (start < count && !buffers[start].hasRemaining()) {
+            buffers[start++] = null;
+        }
+        if (start == count) {
+            start = count = 0;
+            bytes = 0;
+        } else if (start > 0) {
+            // Correr los pendientes al principio para que entren frames nuevos
+            System.arraycopy(buffers, start, buffers, 0, count - start);
+            Arrays.fill(buffers, count - start, count, null);
+            count -= start;
+            start = 0;
+            bytes = 0;
+            for (int i = 0; i < count; i++) bytes += buffers[i].remaining();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package chat.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.channels.SocketChannel;
+
+// Acceso a las clases del chat, que están en el paquete por defecto y no se pueden importar
+// desde chat.bench. Todo se resuelve una vez por reflexión en el @Setup; los benchmarks
+// solo invocan los MethodHandle resultantes.
+final class ChatInternals {
+    static final Class<?> SERVER = load("Server");
+    static final Class<?> CHAT_CLIENT = load("ChatClient");
+    static final Class<?> CLIENT_HANDLER = load("Server$ClientHandler");
+    static final Class<?> SERVER_UDP = load("ServerUDP");
+    static final Class<?> CHAT_ENGINE = load("ChatEngine");
+    static final Class<?> USER_REGISTRY = load("UserRegistry");
+
+    private ChatInternals() {}
+
+    // El hilo escritor de Log escribe en stdout; se descarta para no medir la consola
+    static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    // Servidor sin escuchar, con colas de salida que descartan lo viejo (nadie las vacía).
+    // Con startEngine el motor atiende los comandos que le llegan por submit (handleLine);
+    // sin él, el estado del motor se puede tocar directo desde el hilo del benchmark, que
+    // pasa a ser su único escritor.
+    static Object newServer(int queueMessages, boolean startEngine) throws Throwable {
+        Class<?> policyClass = load("OutboundQueue$Policy");
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object discard = Enum.valueOf((Class) load("OutboundQueue$Action"), "DESCARTAR");
+        Object policy = accessible(policyClass.getDeclaredConstructor(discard.getClass(), int.class, long.class))
+                .newInstance(discard, queueMessages, Long.MAX_VALUE);
+        Object server = accessible(SERVER.getDeclaredConstructor(int.class, String.class, int.class, policyClass))
+                .newInstance(0, "hilos", 0, policy);
+        if (startEngine) method(CHAT_ENGINE, "start").invoke(field(server, "engine"));
+        return server;
+    }
+
+    // Arrancar el motor de ServerUDP (main() no corre en los benchmarks)
+    static Object startUdpEngine() throws Throwable {
+        Object engine = accessible(SERVER_UDP.getDeclaredField("engine")).get(null);
+        method(CHAT_ENGINE, "start").invoke(engine);
+        return engine;
+    }
+
+    // ClientHandler sin socket: sirve de destino mientras nadie arranque su escritor.
+    // Con nombre, queda como si hubiera hecho login: registrado y en la sala "general"
+    // (se escribe directo en el estado del motor: llamar antes de pasarle comandos).
+    static Object newHandler(Object server, String username) throws Throwable {
+        Object handler = accessible(CLIENT_HANDLER.getDeclaredConstructor(SocketChannel.class, SERVER))
+                .newInstance(null, server);
+        if (username != null) {
+            Object engine = field(server, "engine");
+            method(USER_REGISTRY, "claim", Object.class, String.class).invoke(field(engine, "users"), handler, username);
+            method(CHAT_CLIENT, "setUsername", String.class).invoke(handler, username);
+            method(load("RoomIndex"), "join", Object.class, String.class).invoke(field(engine, "rooms"), handler, "general");
+        }
+        return handler;
+    }
+
+    static Object field(Object owner, String name) throws ReflectiveOperationException {
+        return accessible(owner.getClass().getDeclaredField(name)).get(owner);
+    }
+
+    static MethodHandle method(Class<?> owner, String name, Class<?>... params) throws ReflectiveOperationException {
+        return MethodHandles.lookup().unreflect(accessible(owner.getDeclaredMethod(name, params)));
+    }
+
+    private static <T extends java.lang.reflect.AccessibleObject> T accessible(T member) {
+        member.setAccessible(true);
+        return member;
+    }
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Falta la clase del chat " + name, e);
+        }
+    }
+}
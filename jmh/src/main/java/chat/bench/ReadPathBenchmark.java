@@ -0,0 +1,85 @@
+package chat.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Camino de lectura por mensaje: reconocer comandos sobre los bytes y pasarlos al motor,
+// tal como lo hacen ClientHandler.run() (vía Server.handleLine) y los receptores de ServerUDP.
+// El motor los atiende en su propio hilo; si se atrasa, el anillo lleno frena al benchmark.
+// El emisor está solo en el chat, así que un mensaje normal no genera envíos.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadPathBenchmark {
+    private final byte[] chatLine = "  hola a todos, ¿cómo andan? ñandú  ".getBytes(StandardCharsets.UTF_8);
+    private final byte[] listCommand = "/LISTAR".getBytes(StandardCharsets.UTF_8);
+
+    private Object server;
+    private Object client;
+    private MethodHandle handleLine;
+
+    private DatagramChannel udpChannel;
+    private DatagramSocket udpSink;    // Destino de las respuestas UDP (nadie lo lee)
+    private SocketAddress udpClient;
+    private MethodHandle udpHandle;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        ChatInternals.silenceStdout();
+        server = ChatInternals.newServer(16, true);
+        client = ChatInternals.newHandler(server, "emisor");
+        handleLine = ChatInternals.method(ChatInternals.SERVER, "handleLine", ChatInternals.CHAT_CLIENT,
+                byte[].class, int.class, int.class);
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        udpChannel = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        udpSink = new DatagramSocket(0, loopback);
+        udpClient = new InetSocketAddress(loopback, udpSink.getLocalPort());
+        ChatInternals.startUdpEngine();
+        udpHandle = ChatInternals.method(ChatInternals.SERVER_UDP, "handle",
+                DatagramChannel.class, ByteBuffer.class, SocketAddress.class);
+        udpHandle.invoke(udpChannel, ByteBuffer.wrap("emisor".getBytes(StandardCharsets.UTF_8)), udpClient); // Registro
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        udpChannel.close();
+        udpSink.close();
+    }
+
+    // ClientHandler.run(): bytes de la línea -> Server.handleLine (mensaje normal)
+    @Benchmark
+    public Object tcpChatLine() throws Throwable {
+        return handleLine.invoke(server, client, chatLine, 0, chatLine.length);
+    }
+
+    // ClientHandler.run() con un comando (/listar responde encolando la lista al emisor)
+    @Benchmark
+    public Object tcpCommand() throws Throwable {
+        return handleLine.invoke(server, client, listCommand, 0, listCommand.length);
+    }
+
+    // ServerUDP: datagrama -> comandos -> mensaje normal
+    @Benchmark
+    public void udpChatLine() throws Throwable {
+        udpHandle.invoke(udpChannel, ByteBuffer.wrap(chatLine), udpClient);
+    }
+
+    // ServerUDP con /listar (incluye el send() de la respuesta)
+    @Benchmark
+    public void udpCommand() throws Throwable {
+        udpHandle.invoke(udpChannel, ByteBuffer.wrap(listCommand), udpClient);
+    }
+}
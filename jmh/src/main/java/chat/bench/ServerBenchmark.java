@@ -0,0 +1,83 @@
+package chat.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Fan-out y registro de usuarios con N clientes destino que no leen (sus colas de salida
+// descartan lo viejo, así se mide solo el trabajo del emisor). El motor no arranca: el hilo
+// del benchmark es el único que toca UserRegistry y RoomIndex, como lo sería motor-chat.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int users;
+
+    private Object engine;             // Server.engine, sin arrancar
+    private Object sender;
+    private Object churner;            // Cliente que entra y sale en cada operación
+    private Object registry;           // ChatEngine.users
+    private Object rooms;              // ChatEngine.rooms
+    private MethodHandle broadcast;
+    private MethodHandle listUsers;
+    private MethodHandle claim;
+    private MethodHandle release;
+    private MethodHandle join;
+    private MethodHandle leave;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        ChatInternals.silenceStdout();
+        Object server = ChatInternals.newServer(16, false);
+        engine = ChatInternals.field(server, "engine");
+        registry = ChatInternals.field(engine, "users");
+        rooms = ChatInternals.field(engine, "rooms");
+        Class<?> roomIndex = rooms.getClass();
+        broadcast = ChatInternals.method(ChatInternals.CHAT_ENGINE, "broadcast", String.class, String.class, ChatInternals.CHAT_CLIENT);
+        listUsers = ChatInternals.method(ChatInternals.CHAT_ENGINE, "listUsers");
+        claim = ChatInternals.method(ChatInternals.USER_REGISTRY, "claim", Object.class, String.class);
+        release = ChatInternals.method(ChatInternals.USER_REGISTRY, "release", Object.class);
+        join = ChatInternals.method(roomIndex, "join", Object.class, String.class);
+        leave = ChatInternals.method(roomIndex, "leave", Object.class);
+
+        sender = ChatInternals.newHandler(server, "emisor");
+        for (int i = 1; i < users; i++) {
+            ChatInternals.newHandler(server, "usuario" + i);
+        }
+        churner = ChatInternals.newHandler(server, null);
+    }
+
+    // ChatEngine.broadcast(): un mensaje a users - 1 destinatarios (todos en la sala "general")
+    @Benchmark
+    public void broadcast() throws Throwable {
+        broadcast.invoke(engine, "general", "[emisor] hola a todos, ¿cómo andan?", sender);
+    }
+
+    // ChatEngine.listUsers(): texto de /listar sin cambios de membresía (lista cacheada)
+    @Benchmark
+    public Object listUsers() throws Throwable {
+        return listUsers.invoke(engine);
+    }
+
+    // Alta y baja de un usuario con users conectados: registro y sala, como login y /salir
+    @Benchmark
+    public Object joinLeaveChurn() throws Throwable {
+        claim.invoke(registry, churner, "nuevo");
+        join.invoke(rooms, churner, "general");
+        leave.invoke(rooms, churner);
+        return release.invoke(registry, churner);
+    }
+
+    // Peor caso de /listar: alguien entró y salió desde la última vez, hay que rearmar la lista
+    @Benchmark
+    public Object listUsersAfterChurn() throws Throwable {
+        claim.invoke(registry, churner, "nuevo");
+        release.invoke(registry, churner);
+        return listUsers.invoke(engine);
+    }
+}